@@ -20,6 +20,7 @@ import android.graphics.Color;
 import android.media.MediaPlayer;
 import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.support.v7.app.AppCompatActivity;
@@ -33,6 +34,8 @@ import com.google.firebase.database.ValueEventListener;
 import com.orbotix.macro.MacroObject;
 import com.orbotix.macro.cmd.Delay;
 import com.orbotix.macro.cmd.Fade;
+import com.orbotix.macro.cmd.LoopEnd;
+import com.orbotix.macro.cmd.LoopStart;
 
 public class RemoteControlActivity extends AppCompatActivity implements JoyStick.JoyStickListener {
     private TextView countDownTimer;
@@ -63,6 +66,11 @@ public class RemoteControlActivity extends AppCompatActivity implements JoyStick
     private boolean startedMusic = false;
     private boolean startedSoundEffect = false;
 
+    // Frozen light dance, built once and left looping on the robot while frozen
+    private static final int FROZEN_LIGHT_DANCE_LOOPS = 60;
+    private static final MacroObject FROZEN_LIGHT_DANCE = buildFrozenLightDance();
+    private long lightDanceStartTime = -1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -138,6 +146,7 @@ public class RemoteControlActivity extends AppCompatActivity implements JoyStick
         fallBackTimer.removeCallbacks(runnable);
 
         MainActivity.robot.abortMacro();
+        lightDanceStartTime = -1;
         MainActivity.robot.setLed(0, 0, 0);
 
         if (headingEventListener != null) {
@@ -203,8 +212,30 @@ public class RemoteControlActivity extends AppCompatActivity implements JoyStick
             return;
         }
 
+        // Already blinking on the robot, called on every timer tick.
+        if (lightDanceStartTime >= 0 &&
+                SystemClock.uptimeMillis() - lightDanceStartTime < FROZEN_LIGHT_DANCE_LOOPS * 1000) {
+            return;
+        }
+        lightDanceStartTime = SystemClock.uptimeMillis();
+
+        //Send the macro to the robot and play
+        FROZEN_LIGHT_DANCE.setRobot( MainActivity.robot.getRobot() );
+        FROZEN_LIGHT_DANCE.playMacro();
+    }
+
+    // Ends the light dance, if it is running.
+    private void stopFrozenLightDance() {
+        if (lightDanceStartTime >= 0) {
+            MainActivity.robot.abortMacro();
+            lightDanceStartTime = -1;
+        }
+    }
+
+    private static MacroObject buildFrozenLightDance() {
         MacroObject macro = new MacroObject();
-        // Blink over the period of 1 second
+        // Blink over the period of 1 second, repeated on the robot itself
+        macro.addCommand( new LoopStart( FROZEN_LIGHT_DANCE_LOOPS ) );
         macro.addCommand( new Fade( 64, 64, 64, 250 ) );
         macro.addCommand( new Delay( 250 ) );
         macro.addCommand( new Fade( 0, 0, 0, 250 ) );
@@ -213,11 +244,9 @@ public class RemoteControlActivity extends AppCompatActivity implements JoyStick
         macro.addCommand( new Delay( 250 ) );
         macro.addCommand( new Fade( 0, 0, 0, 250 ) );
         macro.addCommand( new Delay( 250 ) );
-
-        //Send the macro to the robot and play
+        macro.addCommand( new LoopEnd() );
         macro.setMode( MacroObject.MacroObjectMode.Normal );
-        macro.setRobot( MainActivity.robot.getRobot() );
-        macro.playMacro();
+        return macro;
     }
 
     private void setEventListeners() {
@@ -306,12 +335,13 @@ public class RemoteControlActivity extends AppCompatActivity implements JoyStick
 
                 if (state == GAME_STATE_OVER) { // Game Over
                     isFrozen = false;
+                    stopFrozenLightDance();
                     MainActivity.robot.setLed(0, 0, 0);
                     UserSetup.joinedGame = false;
                     UserSetup.score = 0;
                     finish();
                 } else if (state == GAME_STATE_PLAYING) { // UnFrozen (move state)
-                    MainActivity.robot.abortMacro();
+                    stopFrozenLightDance();
                     isFrozen = false;
                     MainActivity.robot.setLed(0, 0, 0);
 
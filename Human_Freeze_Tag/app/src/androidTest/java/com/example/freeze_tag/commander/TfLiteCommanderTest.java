@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.freeze_tag.InterpreterOptions;
+import com.example.freeze_tag.MainActivity;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the commander model in the TensorFlow Lite interpreter and in {@link DenseModel} on the
+ * same inputs, and compares their results and per-call latency.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TfLiteCommanderTest {
+    private static final String TAG = "COMMANDER_BENCHMARK";
+    private static final int WARMUP_CALLS = 50;
+    private static final int CALLS = 500;
+
+    private static TfLiteCommander newCommander(boolean useJavaModel) {
+        AssetManager assets = InstrumentationRegistry.getTargetContext().getAssets();
+        InterpreterOptions options = new InterpreterOptions();
+        options.setNumThreads(MainActivity.TF_LITE_COMMANDER_NUM_THREADS);
+        return new TfLiteCommander(MainActivity.TF_LITE_COMMANDER_MODEL, assets, options, useJavaModel);
+    }
+
+    private static List<CommanderHistory> randomInputs(int count, Random random) {
+        List<CommanderHistory> histories = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CommanderHistory history = new CommanderHistory(MainActivity.NUM_COMMANDER_INPUTS);
+            while (!history.isFull()) {
+                history.add(
+                        random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                        random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                        random.nextFloat(), random.nextFloat());
+            }
+            histories.add(history);
+        }
+        return histories;
+    }
+
+    @Test
+    public void javaModel_matchesInterpreter() {
+        TfLiteCommander interpreter = newCommander(false);
+        TfLiteCommander java = newCommander(true);
+        Random random = new Random(13);
+        float[] aggressiveness = new float[TfLiteCommander.MAX_BATCH_SIZE];
+
+        for (int count = 1; count <= TfLiteCommander.MAX_BATCH_SIZE; count++) {
+            for (int i = 0; i < count; i++) {
+                aggressiveness[i] = random.nextFloat();
+            }
+            List<CommanderHistory> inputs = randomInputs(count, random);
+
+            float[][] expected = interpreter.getCommands(inputs, aggressiveness, count);
+            float[][] actual = java.getCommands(inputs, aggressiveness, count);
+            for (int i = 0; i < count; i++) {
+                assertArrayEquals(expected[i], actual[i], 1e-3f);
+            }
+        }
+
+        float[][] expected = new float[1][TfLiteCommander.NUM_HEADINGS];
+        float[][] actual = new float[1][TfLiteCommander.NUM_HEADINGS];
+        CommanderHistory input = randomInputs(1, random).get(0);
+        interpreter.getCommands(input, expected, 0.5f);
+        java.getCommands(input, actual, 0.5f);
+        assertArrayEquals(expected[0], actual[0], 1e-3f);
+    }
+
+    @Test
+    public void perCallLatency() {
+        for (boolean useJavaModel : new boolean[] {false, true}) {
+            TfLiteCommander commander = newCommander(useJavaModel);
+            Random random = new Random(17);
+            float[] aggressiveness = new float[TfLiteCommander.MAX_BATCH_SIZE];
+            float[][] results = new float[1][TfLiteCommander.NUM_HEADINGS];
+            CommanderHistory input = randomInputs(1, random).get(0);
+            List<CommanderHistory> batch = randomInputs(TfLiteCommander.MAX_BATCH_SIZE, random);
+
+            for (int i = 0; i < WARMUP_CALLS; i++) {
+                commander.getCommands(input, results, 0.5f);
+                commander.getCommands(batch, aggressiveness, TfLiteCommander.MAX_BATCH_SIZE);
+            }
+
+            // Alternating like the game does when only some bots are ready would resize the
+            // interpreter every call, time each size on its own.
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < CALLS; i++) {
+                commander.getCommands(input, results, 0.5f);
+            }
+            long singleNanos = (SystemClock.elapsedRealtimeNanos() - start) / CALLS;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < CALLS; i++) {
+                commander.getCommands(batch, aggressiveness, TfLiteCommander.MAX_BATCH_SIZE);
+            }
+            long batchNanos = (SystemClock.elapsedRealtimeNanos() - start) / CALLS;
+
+            Log.i(TAG, String.format("%s per call: 1 Sphero %.3f ms, %d Spheros %.3f ms",
+                    useJavaModel ? "Java" : "TensorFlow Lite",
+                    singleNanos / 1e6, TfLiteCommander.MAX_BATCH_SIZE, batchNanos / 1e6));
+        }
+    }
+}
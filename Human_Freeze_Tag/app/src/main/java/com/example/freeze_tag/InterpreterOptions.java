@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.MappedByteBuffer;
+
+/**
+ * How a Tensorflow Lite interpreter should be built. The detector and the commander each get their
+ * own options so the small commander model doesn't compete with the detector for cores.
+ */
+public class InterpreterOptions {
+    private static final String TAG = "INTERPRETER_OPTIONS";
+
+    /** Pass as the thread count to pick it with a short benchmark when the interpreter is built. */
+    public static final int AUTO_THREADS = 0;
+
+    // Runs for each candidate thread count in auto mode, the first one is a warm up.
+    private static final int BENCHMARK_RUNS = 3;
+    // A higher thread count has to be this much faster to be worth the extra cores.
+    private static final float MIN_SPEEDUP = 0.9f;
+
+    /**
+     * A representative inference, run on the interpreter to time it in auto mode. With
+     * {@link #setPreferences} it runs on its own interpreter on a background thread, so it must
+     * only use buffers of its own.
+     */
+    public interface Probe {
+        void run(Interpreter interpreter);
+    }
+
+    private int numThreads = 1;
+    private int maxThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+    private SharedPreferences preferences;
+    private String preferenceKey;
+
+    public InterpreterOptions setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    /** The most threads auto mode will try. */
+    public InterpreterOptions setMaxThreads(int maxThreads) {
+        this.maxThreads = Math.max(1, maxThreads);
+        return this;
+    }
+
+    /**
+     * Makes auto mode remember the thread count it picks under {@code key}, and pick it in the
+     * background: until then, interpreters run on a single thread.
+     */
+    public InterpreterOptions setPreferences(SharedPreferences preferences, String key) {
+        this.preferences = preferences;
+        this.preferenceKey = key;
+        return this;
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isAutoThreads() {
+        return numThreads == AUTO_THREADS;
+    }
+
+    /**
+     * Builds an interpreter for the model. In auto mode, the probe is timed with 1 up to the max
+     * thread count and the interpreter is left on the fastest one. That takes several inferences,
+     * so unless preferences were set, don't call it on the UI thread.
+     */
+    public Interpreter createInterpreter(final MappedByteBuffer model, final Probe probe) {
+        if (!isAutoThreads()) {
+            return new Interpreter(model, numThreads);
+        }
+
+        if (preferences != null) {
+            final int savedThreads = preferences.getInt(preferenceKey, AUTO_THREADS);
+            if (savedThreads != AUTO_THREADS) {
+                Log.i(TAG, "Using " + savedThreads + " threads, picked earlier");
+                return new Interpreter(model, savedThreads);
+            }
+
+            // Picked on an interpreter of its own, the next start uses the result.
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final Interpreter interpreter = new Interpreter(model, 1);
+                    final int threads = pickThreads(interpreter, probe);
+                    interpreter.close();
+                    preferences.edit().putInt(preferenceKey, threads).apply();
+                }
+            }, "Thread-probe").start();
+            return new Interpreter(model, 1);
+        }
+
+        final Interpreter interpreter = new Interpreter(model, 1);
+        pickThreads(interpreter, probe);
+        return interpreter;
+    }
+
+    /** Times the probe with each thread count, and leaves the interpreter on the fastest one. */
+    private int pickThreads(Interpreter interpreter, Probe probe) {
+        int bestThreads = 1;
+        long bestTime = Long.MAX_VALUE;
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            interpreter.setNumThreads(threads);
+            long time = timeProbe(interpreter, probe);
+            Log.i(TAG, "Inference with " + threads + " threads: " + time + "ms");
+            if (time < bestTime * MIN_SPEEDUP) {
+                bestTime = time;
+                bestThreads = threads;
+            }
+        }
+
+        Log.i(TAG, "Using " + bestThreads + " threads");
+        interpreter.setNumThreads(bestThreads);
+        return bestThreads;
+    }
+
+    private static long timeProbe(Interpreter interpreter, Probe probe) {
+        probe.run(interpreter);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 1; i < BENCHMARK_RUNS; i++) {
+            long start = SystemClock.uptimeMillis();
+            probe.run(interpreter);
+            best = Math.min(best, SystemClock.uptimeMillis() - start);
+        }
+        return best;
+    }
+}
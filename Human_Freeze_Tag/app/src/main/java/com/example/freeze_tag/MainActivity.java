@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
@@ -28,6 +29,9 @@ import android.widget.RadioButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.freeze_tag.robot.Clock;
+import com.example.freeze_tag.robot.CommandCoalescer;
+import com.example.freeze_tag.robot.CommandDispatcher;
 import com.orbotix.ConvenienceRobot;
 import com.orbotix.common.DiscoveryException;
 import com.orbotix.common.Robot;
@@ -41,6 +45,18 @@ import java.util.List;
 public class MainActivity extends AppCompatActivity implements RobotChangedStateListener {
     // Used to connect / control the Sphero Robots
     public static List<ConvenienceRobot> spheroRobots = new ArrayList<>();
+    // What the game sends its commands through, one for each of spheroRobots.
+    public static List<CommandCoalescer> spheroCommands = new ArrayList<>();
+    // What the Sphero commands are timed with.
+    public static final Clock spheroClock = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    };
+    // Sends the commands from a thread per Sphero. Shut down with the activity, the next one adds
+    // its Spheros to it again.
+    public static final CommandDispatcher spheroDispatcher = new CommandDispatcher(spheroClock);
     private DiscoveryAgentLE mDiscoveryAgent;
     private static final int REQUEST_CODE_LOCATION_PERMISSION = 42;
 
@@ -49,11 +65,44 @@ public class MainActivity extends AppCompatActivity implements RobotChangedState
     public static final String TF_LITE_OBJECT_DETECTION_MODEL = "detect_model.tflite";
     public static final int TF_LITE_OBJECT_DETECTION_IMAGE_DIMENSION = 300;
     public static final int NUM_RESULTS = 10; // How many results from Object Detection to get
+    // Interpreter threads. InterpreterOptions.AUTO_THREADS times inference in the background on the
+    // first start to pick, and keeps the count for later starts.
+    public static final int TF_LITE_OBJECT_DETECTION_NUM_THREADS = InterpreterOptions.AUTO_THREADS;
+    public static final int TF_LITE_COMMANDER_NUM_THREADS = 1;
+    // Threads, including the camera thread, the Java YUV converter splits a frame across when the
+    // native one is missing. Capped at the number of cores.
+    public static final int YUV_CONVERSION_NUM_THREADS = 4;
+    // Runs the commander's dense layers in Java instead of the TensorFlow Lite interpreter.
+    public static final boolean COMMANDER_USE_JAVA_MODEL = false;
+    // A bot reuses its last commander result while no input moved by this much, 0 disables it.
+    public static final float COMMANDER_GATE_EPSILON = 0.005f;
+    // Recent commander results served for inputs equal after rounding to the quantum, 0 disables it.
+    public static final int COMMANDER_CACHE_SIZE = 0;
+    public static final float COMMANDER_CACHE_QUANTUM = 0.01f;
+
+    // Sphero drives are sent at most this often, and dropped when this close in degrees to the
+    // last one, unless it is older than the refresh period.
+    public static final long SPHERO_MIN_COMMAND_INTERVAL_MS = 100;
+    public static final float SPHERO_HEADING_TOLERANCE = 5.0f;
+    public static final long SPHERO_COMMAND_REFRESH_MS = 1000;
+    // Firebase writes are gathered and sent as one update this often.
+    public static final long FIREBASE_FLUSH_INTERVAL_MS = 100;
+    // Above 0, bots are driven by trajectories of this many steps played as a macro on the
+    // Sphero, instead of a drive per frame. The turn between commander headings is continued for
+    // the length of the plan, up to the max turn rate in degrees per second.
+    public static final int SPHERO_TRAJECTORY_STEPS = 0;
+    public static final int SPHERO_TRAJECTORY_STEP_MS = 150;
+    public static final float SPHERO_TRAJECTORY_MAX_TURN_RATE = 90.0f;
+    // Above 1, this many single-threaded detection interpreters work on alternating frames, each on
+    // its own thread, and TF_LITE_OBJECT_DETECTION_NUM_THREADS is ignored. On big.LITTLE devices
+    // several single-threaded interpreters can beat one with more threads on throughput.
+    public static final int TF_LITE_OBJECT_DETECTION_NUM_INTERPRETERS = 1;
 
     // Used to handle game state
     public static String arenaId;
     public static final int GAME_STATE_OVER = 0;
     public static final int GAME_STATE_WAITING = 4;
+    // Frames of history the commander takes, unless its model says otherwise.
     public static final int NUM_COMMANDER_INPUTS = 2;
 
 
@@ -103,9 +152,14 @@ public class MainActivity extends AppCompatActivity implements RobotChangedState
             mDiscoveryAgent.stopDiscovery();
         }
 
+        // Stop the senders first, so nothing is sent to a disconnected robot.
+        spheroDispatcher.shutdown();
+        spheroCommands.clear();
+
         for (ConvenienceRobot robot : spheroRobots) {
             robot.disconnect();
         }
+        spheroRobots.clear();
 
         mDiscoveryAgent.addRobotStateListener(null);
     }
@@ -124,6 +178,11 @@ public class MainActivity extends AppCompatActivity implements RobotChangedState
                 // Save the robot as a ConvenienceRobot for additional utility methods
                 ConvenienceRobot convenienceRobot = new ConvenienceRobot(robot);
                 spheroRobots.add(convenienceRobot);
+                final String name = "Sphero " + spheroCommands.size();
+                spheroCommands.add(new CommandCoalescer(name,
+                        spheroDispatcher.add(name, CommandCoalescer.wrap(convenienceRobot)),
+                        spheroClock, SPHERO_MIN_COMMAND_INTERVAL_MS, SPHERO_HEADING_TOLERANCE,
+                        SPHERO_COMMAND_REFRESH_MS));
 
                 convenienceRobot.setLed(0, 0, 0);
                 convenienceRobot.setBackLedBrightness(100);
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+/**
+ * A small least recently used cache of commander results, keyed on the model input rounded to a
+ * quantum. Serves states that come back, e.g. a bot waiting in the same corner, without running
+ * the model. Entries live in fixed arrays, so lookups and updates never allocate.
+ */
+public class CommanderCache {
+    private final int capacity;
+    private final float quantum;
+    private final int inputSize;
+
+    private final int[][] keys;
+    private final long[] hashes;
+    private final float[][] values;
+    private final long[] lastUsed;
+    private int size = 0;
+    private long clock = 0;
+
+    // Key of the last input looked up.
+    private final int[] key;
+    private long hash;
+
+    /**
+     * @param capacity The most results kept.
+     * @param quantum Inputs which round to the same multiple of this share a result.
+     * @param inputSize Floats per model input.
+     * @param outputSize Floats per result.
+     */
+    public CommanderCache(int capacity, float quantum, int inputSize, int outputSize) {
+        if (capacity < 1 || quantum <= 0) {
+            throw new IllegalArgumentException("Capacity " + capacity + ", quantum " + quantum);
+        }
+        this.capacity = capacity;
+        this.quantum = quantum;
+        this.inputSize = inputSize;
+        keys = new int[capacity][inputSize];
+        hashes = new long[capacity];
+        values = new float[capacity][outputSize];
+        lastUsed = new long[capacity];
+        key = new int[inputSize];
+    }
+
+    private void quantize(float[] input, int offset) {
+        long h = 17;
+        for (int i = 0; i < inputSize; i++) {
+            key[i] = Math.round(input[offset + i] / quantum);
+            h = h * 31 + key[i];
+        }
+        hash = h;
+    }
+
+    private int find() {
+        for (int entry = 0; entry < size; entry++) {
+            if (hashes[entry] != hash) {
+                continue;
+            }
+            final int[] k = keys[entry];
+            int i = 0;
+            while (i < inputSize && k[i] == key[i]) {
+                i++;
+            }
+            if (i == inputSize) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the result for an input.
+     *
+     * @return True if found, it is then copied into {@code result}.
+     */
+    public boolean get(float[] input, int offset, float[] result) {
+        quantize(input, offset);
+        final int entry = find();
+        if (entry < 0) {
+            return false;
+        }
+        lastUsed[entry] = ++clock;
+        System.arraycopy(values[entry], 0, result, 0, result.length);
+        return true;
+    }
+
+    /** Stores the result for an input, replacing the least recently used one when full. */
+    public void put(float[] input, int offset, float[] result) {
+        quantize(input, offset);
+        int entry = find();
+        if (entry < 0) {
+            if (size < capacity) {
+                entry = size++;
+            } else {
+                entry = 0;
+                for (int i = 1; i < capacity; i++) {
+                    if (lastUsed[i] < lastUsed[entry]) {
+                        entry = i;
+                    }
+                }
+            }
+            System.arraycopy(key, 0, keys[entry], 0, inputSize);
+            hashes[entry] = hash;
+        }
+        lastUsed[entry] = ++clock;
+        System.arraycopy(result, 0, values[entry], 0, result.length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+/**
+ * The last few frames of one Sphero's game state, as the commander model sees them. Frames are
+ * kept in a fixed ring of floats, so adding one and writing the model input never allocates.
+ *
+ * The model is trained on directions of movement, not speeds: in the input, each older position
+ * of the bot and of the human is moved to a fixed distance from the next newer one.
+ */
+public class CommanderHistory {
+    // Floats per frame in the ring: bot, target, human, two blocks, as x then y.
+    private static final int FRAME_FIELDS = 10;
+    private static final int BOT = 0;
+    private static final int HUMAN = 4;
+    // Distance between consecutive positions of a Sphero in the model input.
+    private static final double DISTANCE = 0.02;
+
+    private final int capacity;
+    private final float[] frames;
+    // Where the next frame goes, and how many frames there are.
+    private int next = 0;
+    private int size = 0;
+
+    // The model input last run for this Sphero and its result, for TfLiteCommander to reuse.
+    private final float[] lastInput;
+    private final float[] lastResult = new float[TfLiteCommander.NUM_HEADINGS];
+    private boolean hasLastResult = false;
+
+    /** @param capacity The number of frames the commander model takes. */
+    public CommanderHistory(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity " + capacity);
+        }
+        this.capacity = capacity;
+        frames = new float[capacity * FRAME_FIELDS];
+        lastInput = new float[capacity * TfLiteCommander.FRAME_SIZE];
+    }
+
+    /** Adds the newest frame, replacing the oldest one once full. */
+    public void add(float botX, float botY, float targetX, float targetY, float humanX, float humanY,
+                    float block1X, float block1Y, float block2X, float block2Y) {
+        int i = next * FRAME_FIELDS;
+        frames[i++] = botX;
+        frames[i++] = botY;
+        frames[i++] = targetX;
+        frames[i++] = targetY;
+        frames[i++] = humanX;
+        frames[i++] = humanY;
+        frames[i++] = block1X;
+        frames[i++] = block1Y;
+        frames[i++] = block2X;
+        frames[i] = block2Y;
+
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+    }
+
+    public void clear() {
+        next = 0;
+        size = 0;
+        hasLastResult = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** True once there are enough frames to run the commander. */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Start of the frame {@code age} frames older than the newest one. */
+    private int frameStart(int age) {
+        return ((next - 1 - age + 2 * capacity) % capacity) * FRAME_FIELDS;
+    }
+
+    /**
+     * Writes the model input for a full history, oldest frame first, each frame followed by the
+     * aggressiveness: {@code getCapacity() * TfLiteCommander.FRAME_SIZE} floats.
+     */
+    public void write(float[] out, int offset, float aggressiveness) {
+        float botX = 0;
+        float botY = 0;
+        float humanX = 0;
+        float humanY = 0;
+        for (int age = 0; age < capacity; age++) {
+            final int frame = frameStart(age);
+            if (age == 0) {
+                botX = frames[frame + BOT];
+                botY = frames[frame + BOT + 1];
+                humanX = frames[frame + HUMAN];
+                humanY = frames[frame + HUMAN + 1];
+            } else {
+                final double botRadians =
+                        Math.atan2(frames[frame + BOT + 1] - botY, frames[frame + BOT] - botX);
+                botX = botX + (float) (DISTANCE * Math.cos(botRadians));
+                botY = botY + (float) (DISTANCE * Math.sin(botRadians));
+                final double humanRadians =
+                        Math.atan2(frames[frame + HUMAN + 1] - humanY, frames[frame + HUMAN] - humanX);
+                humanX = humanX + (float) (DISTANCE * Math.cos(humanRadians));
+                humanY = humanY + (float) (DISTANCE * Math.sin(humanRadians));
+            }
+
+            int o = offset + (capacity - 1 - age) * TfLiteCommander.FRAME_SIZE;
+            out[o++] = botX;
+            out[o++] = botY;
+            out[o++] = frames[frame + 2];
+            out[o++] = frames[frame + 3];
+            out[o++] = humanX;
+            out[o++] = humanY;
+            System.arraycopy(frames, frame + 6, out, o, 4);
+            out[o + 4] = aggressiveness;
+        }
+    }
+
+    /** Keeps the result of running the model on an input written by {@link #write}. */
+    void rememberResult(float[] input, int offset, float[] result) {
+        System.arraycopy(input, offset, lastInput, 0, lastInput.length);
+        System.arraycopy(result, 0, lastResult, 0, lastResult.length);
+        hasLastResult = true;
+    }
+
+    /**
+     * Reuses the last result if no value of the input moved by {@code epsilon} or more since it
+     * was computed.
+     *
+     * @return True if the last result was copied into {@code result}.
+     */
+    boolean reuseResult(float[] input, int offset, float epsilon, float[] result) {
+        if (!hasLastResult || epsilon <= 0) {
+            return false;
+        }
+        for (int i = 0; i < lastInput.length; i++) {
+            if (Math.abs(input[offset + i] - lastInput[i]) >= epsilon) {
+                return false;
+            }
+        }
+        System.arraycopy(lastResult, 0, result, 0, lastResult.length);
+        return true;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Runs a chain of float fully connected layers in plain Java, without the TensorFlow Lite
+ * interpreter. The commander model is such a chain (see build_feedforward in
+ * commander/trainer/task.py), so its weights are read out of the .tflite file once and every run
+ * works over arrays allocated up front.
+ *
+ * Only the parts of the TensorFlow Lite flatbuffer schema needed for this are read: one subgraph
+ * of FULLY_CONNECTED operators with no or ReLU activation, each one feeding the next. Quantized
+ * weights are turned back into floats on load, and QUANTIZE and DEQUANTIZE operators are skipped:
+ * the layers always run in float.
+ */
+public class DenseModel {
+    // From the TensorFlow Lite schema.
+    private static final int BUILTIN_DEQUANTIZE = 6;
+    private static final int BUILTIN_FULLY_CONNECTED = 9;
+    private static final int BUILTIN_QUANTIZE = 114;
+    private static final int ACTIVATION_NONE = 0;
+    private static final int ACTIVATION_RELU = 1;
+
+    private final int numLayers;
+    private final int[] inputSizes;
+    private final int[] outputSizes;
+    // Weights of each layer, one row of inputSizes[layer] per output.
+    private final float[][] weights;
+    private final float[][] biases;
+    private final boolean[] relu;
+
+    private final int maxBatchSize;
+    // Activations of the current layer and the next one, one row per observation.
+    private float[][] current;
+    private float[][] next;
+
+    /**
+     * Reads the layers out of a .tflite model.
+     *
+     * @param model The model file, e.g. memory-mapped from the assets. Not modified.
+     * @param maxBatchSize The most observations {@link #run} will be given at once.
+     * @throws IllegalArgumentException If the model isn't a chain of float fully connected layers.
+     */
+    public DenseModel(ByteBuffer model, int maxBatchSize) {
+        final FlatBufferReader fb = new FlatBufferReader(model);
+        final int root = fb.root();
+
+        final int subgraphs = fb.vector(root, 2);
+        if (subgraphs < 0 || fb.length(subgraphs) != 1) {
+            throw new IllegalArgumentException("Expected a single subgraph");
+        }
+        final int subgraph = fb.tableAt(subgraphs, 0);
+        final int tensors = fb.vector(subgraph, 0);
+        final int operators = fb.vector(subgraph, 3);
+        final int operatorCodes = fb.vector(root, 1);
+        final int buffers = fb.vector(root, 4);
+
+        final int numOperators = fb.length(operators);
+        int fullyConnected = 0;
+        for (int op = 0; op < numOperators; op++) {
+            if (builtinCode(fb, operatorCodes, fb.tableAt(operators, op)) == BUILTIN_FULLY_CONNECTED) {
+                fullyConnected++;
+            }
+        }
+        numLayers = fullyConnected;
+        if (numLayers == 0) {
+            throw new IllegalArgumentException("Model has no fully connected layers");
+        }
+        inputSizes = new int[numLayers];
+        outputSizes = new int[numLayers];
+        weights = new float[numLayers][];
+        biases = new float[numLayers][];
+        relu = new boolean[numLayers];
+
+        int previousOutput = fb.intAt(fb.vector(subgraph, 1), 0);
+        int maxWidth = 0;
+        int layer = 0;
+        for (int op = 0; op < numOperators; op++) {
+            final int operator = fb.tableAt(operators, op);
+            final int code = builtinCode(fb, operatorCodes, operator);
+            final int inputs = fb.vector(operator, 1);
+            final int outputs = fb.vector(operator, 2);
+            if (fb.intAt(inputs, 0) != previousOutput) {
+                throw new IllegalArgumentException("Operator " + op + " isn't part of a chain");
+            }
+            previousOutput = fb.intAt(outputs, 0);
+
+            if (code == BUILTIN_QUANTIZE || code == BUILTIN_DEQUANTIZE) {
+                // Converts the model's float input or output, the layers here run in float anyway.
+                continue;
+            }
+            if (code != BUILTIN_FULLY_CONNECTED || fb.length(inputs) != 3) {
+                throw new IllegalArgumentException("Operator " + op + " isn't fully connected");
+            }
+
+            final int weightsTensor = fb.tableAt(tensors, fb.intAt(inputs, 1));
+            final int weightsShape = fb.vector(weightsTensor, 0);
+            if (fb.length(weightsShape) != 2) {
+                throw new IllegalArgumentException("Layer " + layer + " weights aren't 2D");
+            }
+            outputSizes[layer] = fb.intAt(weightsShape, 0);
+            inputSizes[layer] = fb.intAt(weightsShape, 1);
+            if (layer > 0 && inputSizes[layer] != outputSizes[layer - 1]) {
+                throw new IllegalArgumentException("Layer " + layer + " input size mismatch");
+            }
+
+            weights[layer] = readValues(fb, buffers, weightsTensor,
+                    inputSizes[layer] * outputSizes[layer]);
+            biases[layer] = readValues(fb, buffers, fb.tableAt(tensors, fb.intAt(inputs, 2)),
+                    outputSizes[layer]);
+
+            // FullyConnectedOptions.fused_activation_function
+            final int options = fb.table(operator, 4);
+            final int activation = options < 0 ? ACTIVATION_NONE : fb.byteField(options, 0, ACTIVATION_NONE);
+            if (activation != ACTIVATION_NONE && activation != ACTIVATION_RELU) {
+                throw new IllegalArgumentException("Layer " + layer + " activation " + activation);
+            }
+            relu[layer] = activation == ACTIVATION_RELU;
+
+            maxWidth = Math.max(maxWidth, Math.max(inputSizes[layer], outputSizes[layer]));
+            layer++;
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        current = new float[maxBatchSize][maxWidth];
+        next = new float[maxBatchSize][maxWidth];
+    }
+
+    private static int builtinCode(FlatBufferReader fb, int operatorCodes, int operator) {
+        final int opcode = fb.tableAt(operatorCodes, fb.intField(operator, 0, 0));
+        return fb.byteField(opcode, 0, 0) & 0xff;
+    }
+
+    /** Reads a weights or bias tensor as floats, dequantizing it if needed. */
+    private static float[] readValues(FlatBufferReader fb, int buffers, int tensor, int count) {
+        final TensorInfo info = TensorInfo.read(fb, tensor);
+        final int buffer = fb.tableAt(buffers, fb.intField(tensor, 2, 0));
+        final int data = fb.vector(buffer, 0);
+        if (data < 0 || fb.length(data) != count * info.getElementSize()) {
+            throw new IllegalArgumentException("Missing or truncated weights");
+        }
+
+        final ByteBuffer bytes = fb.data(data);
+        final float[] values = new float[count];
+        switch (info.type) {
+            case TensorInfo.FLOAT32:
+                bytes.asFloatBuffer().get(values);
+                break;
+            case TensorInfo.UINT8:
+            case TensorInfo.INT8:
+                for (int i = 0; i < count; i++) {
+                    values[i] = info.dequantize(bytes.get(i));
+                }
+                break;
+            case TensorInfo.INT32:
+                // Quantized biases, scaled by the input scale times the weights scale.
+                for (int i = 0; i < count; i++) {
+                    values[i] = info.scale * (bytes.getInt(4 * i) - info.zeroPoint);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported tensor type " + info.type);
+        }
+        return values;
+    }
+
+    public int getInputSize() {
+        return inputSizes[0];
+    }
+
+    public int getOutputSize() {
+        return outputSizes[numLayers - 1];
+    }
+
+    public int getNumLayers() {
+        return numLayers;
+    }
+
+    /**
+     * Runs the model, the way {@code Interpreter.run} would. Unlike the interpreter there is little
+     * fixed cost per call for a batch to share, so the time grows with {@code batchSize}.
+     *
+     * @param input {@code batchSize} observations of {@link #getInputSize()} floats, in native
+     *  order from position 0.
+     * @param batchSize The number of observations, at most the size given to the constructor.
+     * @param output At least {@code batchSize} rows of {@link #getOutputSize()} floats.
+     */
+    public void run(ByteBuffer input, int batchSize, float[][] output) {
+        if (batchSize > maxBatchSize) {
+            throw new IllegalArgumentException("Batch of " + batchSize + " > " + maxBatchSize);
+        }
+
+        final int inputSize = inputSizes[0];
+        for (int b = 0; b < batchSize; b++) {
+            final float[] row = current[b];
+            for (int i = 0, position = b * inputSize * 4; i < inputSize; i++, position += 4) {
+                row[i] = input.getFloat(position);
+            }
+        }
+
+        for (int layer = 0; layer < numLayers; layer++) {
+            final boolean last = layer == numLayers - 1;
+            final float[][] out = last ? output : next;
+            denseLayer(layer, current, out, batchSize);
+
+            if (!last) {
+                final float[][] swap = current;
+                current = next;
+                next = swap;
+            }
+        }
+    }
+
+    private void denseLayer(int layer, float[][] in, float[][] out, int batchSize) {
+        final int inputSize = inputSizes[layer];
+        final int outputSize = outputSizes[layer];
+        final float[] w = weights[layer];
+        final float[] bias = biases[layer];
+        final boolean applyRelu = relu[layer];
+
+        // Go through the weights once, for all the observations: they don't fit in the cache.
+        for (int o = 0, rowStart = 0; o < outputSize; o++, rowStart += inputSize) {
+            for (int b = 0; b < batchSize; b++) {
+                final float[] x = in[b];
+                float sum0 = 0;
+                float sum1 = 0;
+                float sum2 = 0;
+                float sum3 = 0;
+                int i = 0;
+                for (; i + 3 < inputSize; i += 4) {
+                    sum0 += w[rowStart + i] * x[i];
+                    sum1 += w[rowStart + i + 1] * x[i + 1];
+                    sum2 += w[rowStart + i + 2] * x[i + 2];
+                    sum3 += w[rowStart + i + 3] * x[i + 3];
+                }
+                for (; i < inputSize; i++) {
+                    sum0 += w[rowStart + i] * x[i];
+                }
+
+                final float value = (sum0 + sum1) + (sum2 + sum3) + bias[o];
+                out[b][o] = applyRelu && value < 0 ? 0 : value;
+            }
+        }
+    }
+}
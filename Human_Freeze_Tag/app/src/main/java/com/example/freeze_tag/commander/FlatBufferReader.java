@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads tables, vectors and scalars out of a flatbuffer, such as a .tflite model, as positions in
+ * the buffer. Only what reading the TensorFlow Lite schema needs.
+ */
+class FlatBufferReader {
+    private final ByteBuffer bb;
+
+    FlatBufferReader(ByteBuffer buffer) {
+        bb = buffer.duplicate();
+        bb.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int root() {
+        return bb.getInt(0);
+    }
+
+    /** Position of a field's value in a table, or -1 if it isn't set. */
+    private int field(int table, int index) {
+        final int vtable = table - bb.getInt(table);
+        final int vtableSize = bb.getShort(vtable) & 0xffff;
+        final int entry = 4 + 2 * index;
+        if (entry >= vtableSize) {
+            return -1;
+        }
+        final int offset = bb.getShort(vtable + entry) & 0xffff;
+        return offset == 0 ? -1 : table + offset;
+    }
+
+    private int indirect(int position) {
+        return position + bb.getInt(position);
+    }
+
+    /** Position of a table field, or -1 if it isn't set. */
+    int table(int table, int index) {
+        final int position = field(table, index);
+        return position < 0 ? -1 : indirect(position);
+    }
+
+    /** Position of a vector's length, or -1 if it isn't set. */
+    int vector(int table, int index) {
+        return table(table, index);
+    }
+
+    int length(int vector) {
+        return vector < 0 ? 0 : bb.getInt(vector);
+    }
+
+    int tableAt(int vector, int i) {
+        return indirect(vector + 4 + 4 * i);
+    }
+
+    int intAt(int vector, int i) {
+        return bb.getInt(vector + 4 + 4 * i);
+    }
+
+    float floatAt(int vector, int i) {
+        return bb.getFloat(vector + 4 + 4 * i);
+    }
+
+    long longAt(int vector, int i) {
+        return bb.getLong(vector + 4 + 8 * i);
+    }
+
+    /** A little endian view of a vector's contents. */
+    ByteBuffer data(int vector) {
+        final ByteBuffer data = bb.duplicate();
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        data.position(vector + 4);
+        data.limit(vector + 4 + bb.getInt(vector));
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    int intField(int table, int index, int defaultValue) {
+        final int position = field(table, index);
+        return position < 0 ? defaultValue : bb.getInt(position);
+    }
+
+    int byteField(int table, int index, int defaultValue) {
+        final int position = field(table, index);
+        return position < 0 ? defaultValue : bb.get(position);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+/**
+ * The commander model scores {@link TfLiteCommander#NUM_HEADINGS} headings evenly spread around
+ * the circle, counter-clockwise from the x axis of the model. Their Sphero headings and
+ * directions are computed once here.
+ */
+public final class Headings {
+    private static final int[] SPHERO_DEGREES = new int[TfLiteCommander.NUM_HEADINGS];
+    private static final double[] COS = new double[TfLiteCommander.NUM_HEADINGS];
+    private static final double[] SIN = new double[TfLiteCommander.NUM_HEADINGS];
+
+    static {
+        for (int i = 0; i < TfLiteCommander.NUM_HEADINGS; i++) {
+            final float radians = (float) (i * (2 * Math.PI / TfLiteCommander.NUM_HEADINGS));
+            // The Sphero's 0 degrees is straight ahead, y up in the model, and turns clockwise.
+            final int degrees = (int) ((radians * 180.0 / Math.PI) % 360);
+            SPHERO_DEGREES[i] = (450 - degrees) % 360;
+            COS[i] = Math.cos(radians);
+            SIN[i] = Math.sin(radians);
+        }
+    }
+
+    private Headings() {}
+
+    /** The index of the best scored heading. */
+    public static int best(float[] scores) {
+        int best = 0;
+        for (int i = 1; i < TfLiteCommander.NUM_HEADINGS; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /** The heading in degrees to drive the Sphero with. */
+    public static int spheroDegrees(int heading) {
+        return SPHERO_DEGREES[heading];
+    }
+
+    /** Direction of the heading along x in the model. */
+    public static double cos(int heading) {
+        return COS[heading];
+    }
+
+    /** Direction of the heading along y in the model. */
+    public static double sin(int heading) {
+        return SIN[heading];
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Type, shape and quantization of a model's input or output, read from the .tflite file. The
+ * TensorFlow Lite Java API of this version can't tell them.
+ *
+ * A quantized value q stands for {@code scale * (q - zeroPoint)}.
+ */
+public class TensorInfo {
+    // TensorType in the TensorFlow Lite schema.
+    public static final int FLOAT32 = 0;
+    public static final int INT32 = 2;
+    public static final int UINT8 = 3;
+    public static final int INT8 = 9;
+
+    public final int type;
+    public final int[] shape;
+    public final float scale;
+    public final int zeroPoint;
+
+    TensorInfo(int type, int[] shape, float scale, int zeroPoint) {
+        this.type = type;
+        this.shape = shape;
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+    }
+
+    /** Reads the model's first input. */
+    public static TensorInfo readInput(ByteBuffer model) {
+        return read(model, 1);
+    }
+
+    /** Reads the model's first output. */
+    public static TensorInfo readOutput(ByteBuffer model) {
+        return read(model, 2);
+    }
+
+    // SubGraph.inputs or SubGraph.outputs
+    private static TensorInfo read(ByteBuffer model, int subgraphField) {
+        final FlatBufferReader fb = new FlatBufferReader(model);
+        final int subgraph = fb.tableAt(fb.vector(fb.root(), 2), 0);
+        final int index = fb.intAt(fb.vector(subgraph, subgraphField), 0);
+        return read(fb, fb.tableAt(fb.vector(subgraph, 0), index));
+    }
+
+    static TensorInfo read(FlatBufferReader fb, int tensor) {
+        final int shapeVector = fb.vector(tensor, 0);
+        final int[] shape = new int[fb.length(shapeVector)];
+        for (int i = 0; i < shape.length; i++) {
+            shape[i] = fb.intAt(shapeVector, i);
+        }
+
+        // QuantizationParameters, per tensor.
+        float scale = 0;
+        int zeroPoint = 0;
+        final int quantization = fb.table(tensor, 4);
+        if (quantization >= 0) {
+            final int scales = fb.vector(quantization, 2);
+            final int zeroPoints = fb.vector(quantization, 3);
+            if (fb.length(scales) > 0) {
+                scale = fb.floatAt(scales, 0);
+            }
+            if (fb.length(zeroPoints) > 0) {
+                zeroPoint = (int) fb.longAt(zeroPoints, 0);
+            }
+        }
+        return new TensorInfo(fb.byteField(tensor, 1, FLOAT32), shape, scale, zeroPoint);
+    }
+
+    public boolean isQuantized() {
+        return (type == UINT8 || type == INT8) && scale != 0;
+    }
+
+    /** Bytes per value. */
+    public int getElementSize() {
+        return type == UINT8 || type == INT8 ? 1 : 4;
+    }
+
+    /** The number of values in one batch entry, i.e. all dimensions but the first. */
+    public int getBatchEntrySize() {
+        int size = 1;
+        for (int i = 1; i < shape.length; i++) {
+            size *= shape[i];
+        }
+        return size;
+    }
+
+    /** The quantized byte for a value, saturated to the type's range. */
+    public byte quantize(float value) {
+        final int q = Math.round(value / scale) + zeroPoint;
+        if (type == UINT8) {
+            return (byte) Math.max(0, Math.min(255, q));
+        }
+        return (byte) Math.max(-128, Math.min(127, q));
+    }
+
+    /** The value of a quantized byte. */
+    public float dequantize(byte q) {
+        final int value = type == UINT8 ? q & 0xff : q;
+        return scale * (value - zeroPoint);
+    }
+}
@@ -20,6 +20,7 @@ import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.util.Log;
 
+import com.example.freeze_tag.InterpreterOptions;
 import com.example.freeze_tag.MainActivity;
 
 import org.tensorflow.lite.Interpreter;
@@ -28,31 +29,150 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
+import java.util.List;
 
 public class TfLiteCommander {
+    // Floats per frame: bot, target, human, two blocks and the aggressiveness.
+    public static final int FRAME_SIZE = 11;
+    public static final int NUM_HEADINGS = 20;
+    // The most Spheros the commander is run for at once.
+    public static final int MAX_BATCH_SIZE = 4;
+
     private String MODEL_PATH;
     private static AssetManager ASSET_MANAGER;
     protected ByteBuffer imgData = null;
     private Interpreter tflite;
+    // Runs the model in Java instead, when set.
+    private DenseModel denseModel;
+
+    // Frames of history the model takes, read from its input shape.
+    private int historyLength = MainActivity.NUM_COMMANDER_INPUTS;
+    private int observationSize = historyLength * FRAME_SIZE;
+    private int[] inputShape = {1, historyLength, FRAME_SIZE};
+
+    // Inputs and outputs for each batch size, allocated when first used. The input tensor is only
+    // resized when the batch size changes.
+    private final ByteBuffer[] batchInputs = new ByteBuffer[MAX_BATCH_SIZE + 1];
+    private final FloatBuffer[] batchFloats = new FloatBuffer[MAX_BATCH_SIZE + 1];
+    private final float[][][] batchResults = new float[MAX_BATCH_SIZE + 1][][];
+    private float[] observations;
+    private int batchSize = 1;
+
+    // Quantization of a uint8 model's input and output, null for floats. Callers always see floats.
+    private TensorInfo inputInfo;
+    private TensorInfo outputInfo;
+    private byte[] quantizedObservations;
+    private final byte[][][] quantizedResults = new byte[MAX_BATCH_SIZE + 1][][];
 
-    public TfLiteCommander(String fileName, AssetManager assetManager) {
+    // The Spheros of the current call, and which of them the model runs for.
+    private final CommanderHistory[] rows = new CommanderHistory[MAX_BATCH_SIZE];
+    private final float[] rowAggressiveness = new float[MAX_BATCH_SIZE];
+    private final int[] runRows = new int[MAX_BATCH_SIZE];
+
+    // A Sphero's last result is reused while no input moved by this much, 0 always runs the model.
+    private float gateEpsilon = 0.0f;
+    private CommanderCache cache;
+
+    // Counts of Sphero observations, and of how each was answered. Written by the game thread.
+    private volatile long observationCount = 0;
+    private volatile long gatedCount = 0;
+    private volatile long cacheHitCount = 0;
+    private volatile long inferenceCount = 0;
+
+    public TfLiteCommander(String fileName, AssetManager assetManager, InterpreterOptions options) {
+        this(fileName, assetManager, options, MainActivity.COMMANDER_USE_JAVA_MODEL);
+    }
+
+    /**
+     * @param useJavaModel Runs the model's dense layers in Java instead of in the TensorFlow Lite
+     *  interpreter, see {@link DenseModel}.
+     */
+    public TfLiteCommander(
+            String fileName, AssetManager assetManager, InterpreterOptions options, boolean useJavaModel) {
         MODEL_PATH = fileName;
         ASSET_MANAGER = assetManager;
-        // the model expect an input of a float 32 at each pixel-channel
-        imgData = ByteBuffer.allocateDirect(1 * MainActivity.NUM_COMMANDER_INPUTS * 11 * 4);
-        imgData.order(ByteOrder.nativeOrder());
 
         try {
-            tflite = new Interpreter(loadModelFile());
+            final MappedByteBuffer model = loadModelFile();
+            final TensorInfo input = TensorInfo.readInput(model);
+            final TensorInfo output = TensorInfo.readOutput(model);
+            // [batch, frames, 11], or [batch, frames * 11] for a model flattening it beforehand.
+            inputShape = input.shape.clone();
+            observationSize = input.getBatchEntrySize();
+            historyLength = observationSize / FRAME_SIZE;
+            observations = new float[MAX_BATCH_SIZE * observationSize];
+
+            if (useJavaModel) {
+                // Always takes and gives floats, whatever the model's input and output types.
+                denseModel = new DenseModel(model, MAX_BATCH_SIZE);
+                imgData = allocateInput(1);
+                return;
+            }
+
+            // This version of TensorFlow Lite only binds uint8 of the quantized types.
+            if (input.type == TensorInfo.INT8 || output.type == TensorInfo.INT8) {
+                throw new IllegalArgumentException(
+                        "int8 commander models need the Java model, see COMMANDER_USE_JAVA_MODEL");
+            }
+            if (input.isQuantized()) {
+                inputInfo = input;
+                quantizedObservations = new byte[MAX_BATCH_SIZE * observationSize];
+            }
+            if (output.isQuantized()) {
+                outputInfo = output;
+            }
+            imgData = allocateInput(1);
+
+            final ByteBuffer probeInput = allocateInput(1);
+            final Object probeResults = outputInfo != null
+                    ? new byte[1][NUM_HEADINGS] : new float[1][NUM_HEADINGS];
+            tflite = options.createInterpreter(model, new InterpreterOptions.Probe() {
+                @Override
+                public void run(Interpreter interpreter) {
+                    probeInput.rewind();
+                    interpreter.run(probeInput, probeResults);
+                }
+            });
         } catch (IOException e) {
             Log.d(">>>>>>> ", "Failed to load model file.");
             Log.e(">>>>>>> ", e.toString());
         }
     }
 
+    /**
+     * Skips the model for a Sphero when none of its inputs moved by {@code epsilon} or more since
+     * the model last ran for it, and reuses that result. Saves running the model, and sending the
+     * same heading again, while neither the bot nor the human player moves.
+     *
+     * @param epsilon In the units of the inputs, e.g. 0.005 of the field. 0 disables it.
+     */
+    public TfLiteCommander setGateEpsilon(float epsilon) {
+        gateEpsilon = epsilon;
+        return this;
+    }
+
+    /**
+     * Serves inputs close to one seen recently from a {@link CommanderCache} instead of running the
+     * model.
+     *
+     * @param capacity The most results kept, 0 disables the cache.
+     * @param quantum Inputs which round to the same multiple of this share a result.
+     */
+    public TfLiteCommander setCache(int capacity, float quantum) {
+        cache = capacity > 0
+                ? new CommanderCache(capacity, quantum, observationSize, NUM_HEADINGS)
+                : null;
+        return this;
+    }
+
+    /** The number of frames a {@link CommanderHistory} needs to hold for this model. */
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
     /** Memory-map the model file in Assets. */
     public MappedByteBuffer loadModelFile() throws IOException {
         AssetFileDescriptor fileDescriptor = ASSET_MANAGER.openFd(MODEL_PATH);
@@ -63,57 +183,165 @@ public class TfLiteCommander {
         return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
     }
 
-    /** Using the 2 latest frames from the Object Detection model, get commander model's results. */
-    public void getCommands(ArrayList<CommanderInput> input, float[][] results, float aggressiveness) {
-        imgData.clear();
-        double distance = 0.02;
-        CommanderInput input2 = input.get(0);
-        CommanderInput input1 = input.get(1);
-        float x1 = input1.botX;
-        float y1 = input1.botY;
-        float x2 = input2.botX;
-        float y2 = input2.botY;
-        double radian = Math.atan2(y2-y1, x2-x1);
-
-        x2 = x1 + (float) (distance * Math.cos(radian));
-        y2 = y1 + (float) (distance * Math.sin(radian));
-
-        float h_x1 = input1.humanX;
-        float h_y1 = input1.humanY;
-        float h_x2 = input2.humanX;
-        float h_y2 = input2.humanY;
-        double h_radian = Math.atan2(h_y2-h_y1, h_x2-h_x1);
-
-        h_x2 = h_x1 + (float) (distance * Math.cos(h_radian));
-        h_y2 = h_y1 + (float) (distance * Math.sin(h_radian));
-
-        // Put oldest frame first
-        imgData.putFloat(x2);
-        imgData.putFloat(y2);
-        imgData.putFloat(input2.targetX);
-        imgData.putFloat(input2.targetY);
-        imgData.putFloat(h_x2);
-        imgData.putFloat(h_y2);
-        imgData.putFloat(input2.block1X);
-        imgData.putFloat(input2.block1Y);
-        imgData.putFloat(input2.block2X);
-        imgData.putFloat(input2.block2Y);
-        imgData.putFloat(aggressiveness);
-
-        imgData.putFloat(x1);
-        imgData.putFloat(y1);
-        imgData.putFloat(input1.targetX);
-        imgData.putFloat(input1.targetY);
-        imgData.putFloat(h_x1);
-        imgData.putFloat(h_y1);
-        imgData.putFloat(input1.block1X);
-        imgData.putFloat(input1.block1Y);
-        imgData.putFloat(input1.block2X);
-        imgData.putFloat(input1.block2Y);
-        imgData.putFloat(aggressiveness);
-
-        tflite.run(imgData, results);
+    /** Using the latest frames from the Object Detection model, get commander model's results. */
+    public void getCommands(CommanderHistory history, float[][] results, float aggressiveness) {
+        rows[0] = history;
+        rowAggressiveness[0] = aggressiveness;
+        System.arraycopy(evaluate(1)[0], 0, results[0], 0, NUM_HEADINGS);
     }
 
-}
+    /**
+     * Same as {@link #getCommands(CommanderHistory, float[][], float)} for several Spheros at once,
+     * in a single run of the model. With the TensorFlow Lite interpreter the fixed cost of a run is
+     * shared, so this takes much less than a run per Sphero. The Java {@link DenseModel} has little
+     * fixed cost, there it still takes about a run per Sphero.
+     *
+     * @param histories The commander history of each Sphero, only the first {@code count} are
+     *  used.
+     * @param aggressiveness The aggressiveness of each Sphero.
+     * @param count The number of Spheros, at most {@link #MAX_BATCH_SIZE}.
+     * @return The heading scores of each Sphero, one row per Sphero. Owned by the commander and
+     *  overwritten by the next call.
+     */
+    public float[][] getCommands(List<CommanderHistory> histories, float[] aggressiveness, int count) {
+        for (int i = 0; i < count; i++) {
+            rows[i] = histories.get(i);
+            rowAggressiveness[i] = aggressiveness[i];
+        }
+        return evaluate(count);
+    }
+
+    /**
+     * Answers the first {@code count} rows from their last results or the cache where possible,
+     * and runs the model once for the rest.
+     */
+    private float[][] evaluate(int count) {
+        final float[][] results = resultsFor(count);
 
+        // Inputs the model runs on are packed at the front of the observations.
+        int runCount = 0;
+        for (int i = 0; i < count; i++) {
+            final int offset = runCount * observationSize;
+            rows[i].write(observations, offset, rowAggressiveness[i]);
+            if (rows[i].reuseResult(observations, offset, gateEpsilon, results[i])) {
+                gatedCount++;
+            } else if (cache != null && cache.get(observations, offset, results[i])) {
+                rows[i].rememberResult(observations, offset, results[i]);
+                cacheHitCount++;
+            } else {
+                runRows[runCount++] = i;
+            }
+        }
+        observationCount += count;
+
+        if (runCount > 0) {
+            final float[][] runResults = resultsFor(runCount);
+            run(putObservations(runCount), runCount, runResults);
+            inferenceCount += runCount;
+
+            for (int r = 0; r < runCount; r++) {
+                final int i = runRows[r];
+                if (runResults != results) {
+                    System.arraycopy(runResults[r], 0, results[i], 0, NUM_HEADINGS);
+                }
+                rows[i].rememberResult(observations, r * observationSize, results[i]);
+                if (cache != null) {
+                    cache.put(observations, r * observationSize, results[i]);
+                }
+            }
+        }
+        return results;
+    }
+
+    private float[][] resultsFor(int count) {
+        if (batchResults[count] == null) {
+            batchResults[count] = new float[count][NUM_HEADINGS];
+        }
+        return batchResults[count];
+    }
+
+    /** The fraction of observations answered with the Sphero's last result. */
+    public float getGateRate() {
+        final long observations = observationCount;
+        return observations == 0 ? 0 : (float) gatedCount / observations;
+    }
+
+    /** The fraction of observations answered from the cache. */
+    public float getCacheHitRate() {
+        final long observations = observationCount;
+        return observations == 0 ? 0 : (float) cacheHitCount / observations;
+    }
+
+    public long getInferenceCount() {
+        return inferenceCount;
+    }
+
+    public String getStatString() {
+        return String.format("Commander: ran %d of %d, gated %.0f%%, cached %.0f%%",
+                inferenceCount, observationCount, 100 * getGateRate(), 100 * getCacheHitRate());
+    }
+
+    private ByteBuffer allocateInput(int count) {
+        final int elementSize = inputInfo != null ? inputInfo.getElementSize() : 4;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(count * observationSize * elementSize);
+        buffer.order(ByteOrder.nativeOrder());
+        batchInputs[count] = buffer;
+        batchFloats[count] = buffer.asFloatBuffer();
+        return buffer;
+    }
+
+    /** Copies the first {@code count} observations into the model input in a single put. */
+    private ByteBuffer putObservations(int count) {
+        if (batchInputs[count] == null) {
+            allocateInput(count);
+        }
+        final int size = count * observationSize;
+        if (inputInfo != null) {
+            for (int i = 0; i < size; i++) {
+                quantizedObservations[i] = inputInfo.quantize(observations[i]);
+            }
+            final ByteBuffer bytes = batchInputs[count];
+            bytes.clear();
+            bytes.put(quantizedObservations, 0, size);
+            return bytes;
+        }
+
+        final FloatBuffer floats = batchFloats[count];
+        floats.clear();
+        floats.put(observations, 0, size);
+        return batchInputs[count];
+    }
+
+    private void run(ByteBuffer input, int size, float[][] results) {
+        if (denseModel != null) {
+            denseModel.run(input, size, results);
+            return;
+        }
+
+        resize(size);
+        if (outputInfo == null) {
+            tflite.run(input, results);
+            return;
+        }
+
+        if (quantizedResults[size] == null) {
+            quantizedResults[size] = new byte[size][NUM_HEADINGS];
+        }
+        final byte[][] quantized = quantizedResults[size];
+        tflite.run(input, quantized);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < NUM_HEADINGS; j++) {
+                results[i][j] = outputInfo.dequantize(quantized[i][j]);
+            }
+        }
+    }
+
+    private void resize(int size) {
+        if (size != batchSize) {
+            // The model flattens each observation itself, only the batch changes.
+            inputShape[0] = size;
+            tflite.resizeInput(0, inputShape);
+            batchSize = size;
+        }
+    }
+}
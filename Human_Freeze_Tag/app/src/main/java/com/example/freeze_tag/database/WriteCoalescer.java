@@ -0,0 +1,241 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.database;
+
+import android.os.Handler;
+
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sits between the game and a Firebase location, and turns the game's many small writes into one
+ * {@code updateChildren} per flush interval:
+ *
+ * - A written path is only marked dirty, a later write to it before the flush replaces the value.
+ * - {@link #set} skips a value equal to the last one the server acknowledged or is about to.
+ *   Paths other devices write to as well, e.g. "vibrate", go through {@link #setAlways} instead,
+ *   as their last acknowledged value may be out of date.
+ * - A failed update marks its paths dirty again, unless they were written since.
+ *
+ * Paths are relative to the location and must be leaves, e.g. "player_blue/score": a path and
+ * one of its parents can't be in the same update. All methods are thread safe.
+ */
+public class WriteCoalescer {
+
+    /** Called once the values of an update are stored, or failed to be. */
+    public interface Callback {
+        void onComplete(boolean success);
+    }
+
+    /** Where the updates go. */
+    public interface Sink {
+        void updateChildren(Map<String, Object> values, Callback done);
+    }
+
+    /** Writes to a Firebase location. */
+    public static Sink wrap(final DatabaseReference reference) {
+        return new Sink() {
+            @Override
+            public void updateChildren(Map<String, Object> values, final Callback done) {
+                reference.updateChildren(values, new DatabaseReference.CompletionListener() {
+                    @Override
+                    public void onComplete(DatabaseError error, DatabaseReference ref) {
+                        done.onComplete(error == null);
+                    }
+                });
+            }
+        };
+    }
+
+    // A value sent and the update it went out in.
+    private static class Sent {
+        final Object value;
+        final long update;
+
+        Sent(Object value, long update) {
+            this.value = value;
+            this.update = update;
+        }
+    }
+
+    private final String name;
+    private final Sink sink;
+    private final long flushIntervalMs;
+
+    // Written since the last flush, in write order.
+    private final Map<String, Object> dirty = new LinkedHashMap<>();
+    // Sent and not acknowledged yet, the latest value of each path.
+    private final Map<String, Sent> inFlight = new HashMap<>();
+    // Last value the server acknowledged for each path.
+    private final Map<String, Object> acknowledged = new HashMap<>();
+
+    private Handler handler;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            synchronized (WriteCoalescer.this) {
+                if (handler != null) {
+                    handler.postDelayed(this, WriteCoalescer.this.flushIntervalMs);
+                }
+            }
+        }
+    };
+
+    private long updates = 0;
+    private long sent = 0;
+    private long suppressed = 0;
+    private long failed = 0;
+    private long bytesSent = 0;
+
+    /**
+     * @param name Used in the stats.
+     * @param flushIntervalMs How often {@link #start} flushes.
+     */
+    public WriteCoalescer(String name, Sink sink, long flushIntervalMs) {
+        this.name = name;
+        this.sink = sink;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /** Flushes every flush interval on {@code handler}'s thread, until {@link #stop()}. */
+    public synchronized void start(Handler handler) {
+        if (this.handler != null) {
+            return;
+        }
+        this.handler = handler;
+        handler.postDelayed(flushRunnable, flushIntervalMs);
+    }
+
+    /** Stops the periodic flushes, and sends what is dirty. */
+    public void stop() {
+        synchronized (this) {
+            if (handler != null) {
+                handler.removeCallbacks(flushRunnable);
+                handler = null;
+            }
+        }
+        flush();
+    }
+
+    /** Writes {@code value} at {@code path} with the next flush, unless it's there already. */
+    public synchronized void set(String path, Object value) {
+        final Sent pending = inFlight.get(path);
+        final boolean known = pending != null || acknowledged.containsKey(path);
+        final Object last = pending != null ? pending.value : acknowledged.get(path);
+        if (known && equal(value, last)) {
+            // A dirty value is out of date.
+            if (dirty.containsKey(path)) {
+                dirty.remove(path);
+                suppressed++;
+            }
+            suppressed++;
+            return;
+        }
+        setAlways(path, value);
+    }
+
+    /** Writes {@code value} at {@code path} with the next flush. */
+    public synchronized void setAlways(String path, Object value) {
+        if (dirty.containsKey(path)) {
+            // Replaced before it was sent.
+            suppressed++;
+        }
+        dirty.put(path, value);
+    }
+
+    /** Sends the dirty paths as one update, if any. */
+    public void flush() {
+        final Map<String, Object> values;
+        final long update;
+        synchronized (this) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            values = new HashMap<>(dirty);
+            dirty.clear();
+            update = ++updates;
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                inFlight.put(entry.getKey(), new Sent(entry.getValue(), update));
+                // About the size of the update as JSON.
+                bytesSent += entry.getKey().length() + String.valueOf(entry.getValue()).length() + 4;
+            }
+            sent += values.size();
+        }
+
+        // Outside the lock, the sink may call back right away or from another thread.
+        sink.updateChildren(values, new Callback() {
+            @Override
+            public void onComplete(boolean success) {
+                acknowledge(values, update, success);
+            }
+        });
+    }
+
+    private synchronized void acknowledge(Map<String, Object> values, long update, boolean success) {
+        if (!success) {
+            failed++;
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            final String path = entry.getKey();
+            final Sent pending = inFlight.get(path);
+            if (pending == null || pending.update != update) {
+                // Sent again since, that update decides.
+                continue;
+            }
+            inFlight.remove(path);
+            if (success) {
+                acknowledged.put(path, entry.getValue());
+            } else if (!dirty.containsKey(path)) {
+                dirty.put(path, entry.getValue());
+            }
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public synchronized int getDirtyCount() {
+        return dirty.size();
+    }
+
+    public synchronized long getUpdates() {
+        return updates;
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    public synchronized String getStatString() {
+        return name + ": updates " + updates + ", sent " + sent + ", suppressed " + suppressed
+                + ", failed " + failed + ", " + bytesSent + " bytes";
+    }
+}
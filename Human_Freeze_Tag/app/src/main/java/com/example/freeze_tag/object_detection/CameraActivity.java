@@ -33,6 +33,8 @@ import android.os.Bundle;
 import android.os.CountDownTimer;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.support.v7.app.AppCompatActivity;
 import android.util.DisplayMetrics;
@@ -48,12 +50,15 @@ import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
+import com.example.freeze_tag.InterpreterOptions;
 import com.example.freeze_tag.MainActivity;
 import com.example.freeze_tag.R;
 import com.example.freeze_tag.SpheroCalibration;
 import com.example.freeze_tag.object_detection.env.ImageUtils;
+import com.example.freeze_tag.object_detection.env.YuvSampler;
 import com.example.freeze_tag.commander.TfLiteCommander;
-import com.orbotix.ConvenienceRobot;
+import com.example.freeze_tag.database.WriteCoalescer;
+import com.example.freeze_tag.robot.CommandCoalescer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -68,25 +73,86 @@ public abstract class CameraActivity extends AppCompatActivity
 
     private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
     private static final String PERMISSION_STORAGE = Manifest.permission.WRITE_EXTERNAL_STORAGE;
+    // Where the interpreter thread counts picked in auto mode are kept.
+    private static final String INTERPRETER_PREFERENCES = "interpreter_options";
 
     private boolean debug = false;
 
     private Handler handler;
     private HandlerThread handlerThread;
     private boolean useCamera2API;
-    private boolean isProcessingFrame = false;
+    // Set on the camera thread while a frame is held, cleared by readyForNextImage().
+    private volatile boolean isProcessingFrame = false;
     private byte[][] yuvBytes = new byte[3][];
+    // Plane buffers of the open Camera2 image, read in place instead of copied into yuvBytes.
+    private ByteBuffer[] yuvPlanes = new ByteBuffer[3];
+    private Image.Plane[] imagePlanes;
     private int[] rgbBytes = null;
+    private byte[] rgb565Bytes = null;
     private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private int uOffset;
+    private int vOffset;
+    // Uptime at which the camera handed over the current frame.
+    private long frameTimestampMs;
 
     protected int previewWidth = 0;
     protected int previewHeight = 0;
-
-    private Runnable postInferenceCallback;
-    private Runnable imageConverter;
+    // The ARGB frame is converted at 1/frameDecimation of the preview size in each dimension.
+    private int frameDecimation = 1;
+
+    // The frame being processed, held until readyForNextImage() hands it back to the camera.
+    private Camera previewCamera;
+    private Image currentImage;
+
+    // Built once, they work on whichever frame is current.
+    private final Runnable imageConverter =
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (currentImage == null) {
+                        ImageUtils.convertYUV420SPToARGB8888(
+                                lastPreviewFrame, previewWidth, previewHeight, rgbBytes, frameDecimation);
+                        return;
+                    }
+                    // The byte[] converters need their own copy of the planes.
+                    fillBytes(imagePlanes, yuvBytes);
+                    ImageUtils.convertYUV420ToARGB8888(
+                            yuvBytes[0],
+                            yuvBytes[1],
+                            yuvBytes[2],
+                            previewWidth,
+                            previewHeight,
+                            yRowStride,
+                            uvRowStride,
+                            uvPixelStride,
+                            rgbBytes,
+                            frameDecimation);
+                }
+            };
+
+    private final Runnable postInferenceCallback =
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (!isProcessingFrame) {
+                        return;
+                    }
+                    if (currentImage != null) {
+                        currentImage.close();
+                        currentImage = null;
+                    } else {
+                        previewCamera.addCallbackBuffer(lastPreviewFrame);
+                    }
+                    isProcessingFrame = false;
+                }
+            };
 
     public static TfLiteCommander tfLiteCommander;
     public static Classifier tfLiteObjectDetection;
+    // Set instead of tfLiteObjectDetection when more than one detection interpreter is used.
+    public static DetectorPool detectorPool;
 
     // Manual adjustments to properly draw the information on the screen for debug purposes.
     public int CANVAS_WIDTH = 1080; // Get the width of the Canvas that is shown on screen
@@ -109,6 +175,9 @@ public abstract class CameraActivity extends AppCompatActivity
     public static FirebaseDatabase database;
     public static DatabaseReference databaseReferenceDevice;
     public static DatabaseReference databaseReferenceLeaderboard;
+    // What the game writes to the two references through, see WriteCoalescer.
+    public static WriteCoalescer arenaWrites;
+    public static WriteCoalescer leaderboardWrites;
     public static ArrayList<Integer> HUMAN_COLORS;
     public static DatabaseReference databaseColorBlue;
     public static DatabaseReference databaseColorGreen;
@@ -122,22 +191,30 @@ public abstract class CameraActivity extends AppCompatActivity
 
         database = FirebaseDatabase.getInstance();
         databaseReferenceDevice = database.getReference(MainActivity.arenaId);
+        arenaWrites = new WriteCoalescer("Arena writes", WriteCoalescer.wrap(databaseReferenceDevice),
+                MainActivity.FIREBASE_FLUSH_INTERVAL_MS);
+        // Both flush on the main thread.
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        arenaWrites.start(mainHandler);
 
         // Set game type and setup Information
-        databaseReferenceDevice.child("game_type").setValue("Human Freeze Tag");
-        databaseReferenceDevice.child("start_game").setValue(false);
-        databaseReferenceDevice.child("game_timer").setValue(-1);
-        databaseReferenceDevice.child("warmup_timer").setValue(-1);
+        arenaWrites.set("game_type", "Human Freeze Tag");
+        arenaWrites.setAlways("start_game", false);
+        arenaWrites.set("game_timer", -1);
+        arenaWrites.set("warmup_timer", -1);
 
         // Keep track of the player's score.
         databaseReferenceLeaderboard = database.getReference("leaderboard");
+        leaderboardWrites = new WriteCoalescer("Leaderboard writes",
+                WriteCoalescer.wrap(databaseReferenceLeaderboard), MainActivity.FIREBASE_FLUSH_INTERVAL_MS);
+        leaderboardWrites.start(mainHandler);
 
         // Warm up timer to sync the Android devices to when a game starts
         countdownTimerWarmupTimer = new CountDownTimer(15000, 1000) {
             @Override
             public void onTick(long millisUntilFinished) {
                 warmupTimer = millisUntilFinished / 1000;
-                databaseReferenceDevice.child("warmup_timer").setValue(warmupTimer);
+                arenaWrites.set("warmup_timer", warmupTimer);
             }
 
             @Override
@@ -151,13 +228,13 @@ public abstract class CameraActivity extends AppCompatActivity
             public void onTick(long millisUntilFinished) {
                 gameTimer = millisUntilFinished / 1000;
 
-                databaseReferenceDevice.child("game_timer").setValue(gameTimer);
+                arenaWrites.set("game_timer", gameTimer);
                 if (gameTimer < 45 && gameTimer != prevTimer) {
                     prevTimer = gameTimer;
                     // During play update each player's score to show them in real time.
                     for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
                         detectedSpheroBall.updateScore();
-                        detectedSpheroBall.databaseReference.child("score").setValue(detectedSpheroBall.score);
+                        arenaWrites.set(detectedSpheroBall.databasePath + "/score", detectedSpheroBall.score);
                     }
                 }
             }
@@ -180,8 +257,8 @@ public abstract class CameraActivity extends AppCompatActivity
                             startGame = true;
                             warmupTimer = 15;
                             gameTimer = 60;
-                            databaseReferenceDevice.child("warmup_timer").setValue(warmupTimer);
-                            databaseReferenceDevice.child("game_timer").setValue(gameTimer);
+                            arenaWrites.set("warmup_timer", warmupTimer);
+                            arenaWrites.set("game_timer", gameTimer);
 
                             countdownTimerWarmupTimer.cancel();
                             countdownTimerGameTimer.cancel();
@@ -206,17 +283,37 @@ public abstract class CameraActivity extends AppCompatActivity
         // Setup the Sphero robots and their game state listeners.
         setupPlayerListeners();
 
+        // If the native YUV converter is missing, split the Java one across cores.
+        ImageUtils.setParallelConversion(true);
+        ImageUtils.setConversionThreads(Math.min(MainActivity.YUV_CONVERSION_NUM_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+
         // Setup the Object Detection / Commander models.
         try {
-            tfLiteObjectDetection = TfLiteObjectDetection.create(getAssets(),
-                    MainActivity.TF_LITE_OBJECT_DETECTION_MODEL,
-                    MainActivity.TF_LITE_OBJECT_DETECTION_IMAGE_DIMENSION);
+            if (MainActivity.TF_LITE_OBJECT_DETECTION_NUM_INTERPRETERS > 1) {
+                detectorPool = new DetectorPool(getAssets(),
+                        MainActivity.TF_LITE_OBJECT_DETECTION_MODEL,
+                        MainActivity.TF_LITE_OBJECT_DETECTION_IMAGE_DIMENSION,
+                        MainActivity.TF_LITE_OBJECT_DETECTION_NUM_INTERPRETERS);
+            } else {
+                final InterpreterOptions detectionOptions = new InterpreterOptions()
+                        .setNumThreads(MainActivity.TF_LITE_OBJECT_DETECTION_NUM_THREADS)
+                        .setPreferences(getSharedPreferences(INTERPRETER_PREFERENCES, MODE_PRIVATE),
+                                "threads_" + MainActivity.TF_LITE_OBJECT_DETECTION_MODEL);
+                tfLiteObjectDetection = TfLiteObjectDetection.create(getAssets(),
+                        MainActivity.TF_LITE_OBJECT_DETECTION_MODEL,
+                        MainActivity.TF_LITE_OBJECT_DETECTION_IMAGE_DIMENSION,
+                        detectionOptions);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
 
         tfLiteCommander = new TfLiteCommander(MainActivity.TF_LITE_COMMANDER_MODEL,
-                getAssets());
+                getAssets(),
+                new InterpreterOptions().setNumThreads(MainActivity.TF_LITE_COMMANDER_NUM_THREADS))
+                .setGateEpsilon(MainActivity.COMMANDER_GATE_EPSILON)
+                .setCache(MainActivity.COMMANDER_CACHE_SIZE, MainActivity.COMMANDER_CACHE_QUANTUM);
 
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
@@ -232,8 +329,9 @@ public abstract class CameraActivity extends AppCompatActivity
     @Override
     protected void onStart() {
         super.onStart();
-        for (ConvenienceRobot robot : MainActivity.spheroRobots) {
-            robot.setLed(0, 0, 0);
+        for (CommandCoalescer commands : MainActivity.spheroCommands) {
+            commands.forgetLed();
+            commands.setLed(0, 0, 0);
         }
     }
 
@@ -247,16 +345,93 @@ public abstract class CameraActivity extends AppCompatActivity
     private byte[] lastPreviewFrame;
 
     protected int[] getRgbBytes() {
+        // Only allocated when needed, the fused preprocessing path never touches it.
+        if (rgbBytes == null) {
+            rgbBytes = new int[getRgbFrameWidth() * getRgbFrameHeight()];
+        }
         imageConverter.run();
         return rgbBytes;
     }
 
+    /**
+     * Converts the current frame to full resolution RGB565, two bytes per pixel. Only available for
+     * frames from the android.hardware.Camera API, returns null for Camera2 frames.
+     */
+    protected byte[] getRgb565Bytes() {
+        if (yuvPlanes[0] != null) {
+            return null;
+        }
+        if (rgb565Bytes == null) {
+            rgb565Bytes = new byte[previewWidth * previewHeight * 2];
+        }
+        ImageUtils.convertYUV420SPToRGB565(lastPreviewFrame, previewWidth, previewHeight, rgb565Bytes);
+        return rgb565Bytes;
+    }
+
+    /**
+     * Sets how much {@link #getRgbBytes()} shrinks the preview frame in each dimension, e.g. 2 to
+     * convert a quarter of the pixels when the preview is much larger than the model input.
+     */
+    protected void setFrameDecimation(final int decimation) {
+        frameDecimation = decimation;
+        rgbBytes = null;
+    }
+
+    protected int getRgbFrameWidth() {
+        return previewWidth / frameDecimation;
+    }
+
+    protected int getRgbFrameHeight() {
+        return previewHeight / frameDecimation;
+    }
+
+    /**
+     * Converts, crops and packs the current frame directly into a model input buffer.
+     * Must be called before {@link #readyForNextImage()} releases the frame.
+     */
+    protected void sampleFrame(final YuvSampler sampler, final ByteBuffer out) {
+        if (yuvPlanes[0] != null) {
+            sampler.sample(yuvPlanes[0], yuvPlanes[1], yuvPlanes[2],
+                    yRowStride, uvRowStride, uvPixelStride, out);
+        } else {
+            sampler.sample(yuvBytes[0], yuvBytes[1], yuvBytes[2], uOffset, vOffset,
+                    yRowStride, uvRowStride, uvPixelStride, out);
+        }
+    }
+
+    /**
+     * Returns the uptime at which the current frame arrived from the camera, taken before any
+     * conversion. Image.getTimestamp() is not used as its time base depends on the device.
+     */
+    protected long getFrameTimestampMs() {
+        return frameTimestampMs;
+    }
+
     protected int getLuminanceStride() {
         return yRowStride;
     }
 
-    protected byte[] getLuminance() {
-        return yuvBytes[0];
+    /**
+     * Copies the luminance plane of the current frame into {@code luminance}, reallocating it if it
+     * is too small, and returns the array holding the copy.
+     */
+    protected byte[] copyLuminance(byte[] luminance) {
+        if (yuvPlanes[0] != null) {
+            final ByteBuffer buffer = yuvPlanes[0];
+            buffer.rewind();
+            if (luminance == null || luminance.length < buffer.remaining()) {
+                luminance = new byte[buffer.remaining()];
+            }
+            buffer.get(luminance, 0, buffer.remaining());
+            buffer.rewind();
+        } else {
+            final int size = previewWidth * previewHeight;
+            if (luminance == null || luminance.length < size) {
+                luminance = new byte[size];
+            }
+            System.arraycopy(yuvBytes[0], 0, luminance, 0, size);
+        }
+        return luminance;
     }
 
     /**
@@ -264,17 +439,17 @@ public abstract class CameraActivity extends AppCompatActivity
      */
     @Override
     public void onPreviewFrame(final byte[] bytes, final Camera camera) {
+        final long timestampMs = SystemClock.uptimeMillis();
         if (isProcessingFrame) {
             return;
         }
 
         try {
             // Initialize the storage bitmaps once when the resolution is known.
-            if (rgbBytes == null) {
+            if (previewWidth == 0 || previewHeight == 0) {
                 Camera.Size previewSize = camera.getParameters().getPreviewSize();
                 previewHeight = previewSize.height;
                 previewWidth = previewSize.width;
-                rgbBytes = new int[previewWidth * previewHeight];
                 onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
             }
         } catch (final Exception e) {
@@ -283,26 +458,19 @@ public abstract class CameraActivity extends AppCompatActivity
         }
 
         isProcessingFrame = true;
+        frameTimestampMs = timestampMs;
+        previewCamera = camera;
         lastPreviewFrame = bytes;
+        // NV21 keeps interleaved V/U samples right after the luminance plane.
         yuvBytes[0] = bytes;
+        yuvBytes[1] = bytes;
+        yuvBytes[2] = bytes;
         yRowStride = previewWidth;
+        uvRowStride = previewWidth;
+        uvPixelStride = 2;
+        vOffset = previewWidth * previewHeight;
+        uOffset = vOffset + 1;
 
-        imageConverter =
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-                    }
-                };
-
-        postInferenceCallback =
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        camera.addCallbackBuffer(bytes);
-                        isProcessingFrame = false;
-                    }
-                };
         processImage();
     }
 
@@ -311,13 +479,11 @@ public abstract class CameraActivity extends AppCompatActivity
      */
     @Override
     public void onImageAvailable(final ImageReader reader) {
+        final long timestampMs = SystemClock.uptimeMillis();
         //We need wait until we have some size from onPreviewSizeChosen
         if (previewWidth == 0 || previewHeight == 0) {
             return;
         }
-        if (rgbBytes == null) {
-            rgbBytes = new int[previewWidth * previewHeight];
-        }
         try {
             final Image image = reader.acquireLatestImage();
 
@@ -330,38 +496,19 @@ public abstract class CameraActivity extends AppCompatActivity
                 return;
             }
             isProcessingFrame = true;
+            frameTimestampMs = timestampMs;
+            currentImage = image;
             Trace.beginSection("imageAvailable");
             final Image.Plane[] planes = image.getPlanes();
-            fillBytes(planes, yuvBytes);
+            for (int i = 0; i < planes.length; ++i) {
+                yuvPlanes[i] = planes[i].getBuffer();
+            }
+            imagePlanes = planes;
             yRowStride = planes[0].getRowStride();
-            final int uvRowStride = planes[1].getRowStride();
-            final int uvPixelStride = planes[1].getPixelStride();
-
-            imageConverter =
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            ImageUtils.convertYUV420ToARGB8888(
-                                    yuvBytes[0],
-                                    yuvBytes[1],
-                                    yuvBytes[2],
-                                    previewWidth,
-                                    previewHeight,
-                                    yRowStride,
-                                    uvRowStride,
-                                    uvPixelStride,
-                                    rgbBytes);
-                        }
-                    };
-
-            postInferenceCallback =
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            image.close();
-                            isProcessingFrame = false;
-                        }
-                    };
+            uvRowStride = planes[1].getRowStride();
+            uvPixelStride = planes[1].getPixelStride();
+            uOffset = 0;
+            vOffset = 0;
 
             processImage();
         } catch (final Exception e) {
@@ -388,6 +535,9 @@ public abstract class CameraActivity extends AppCompatActivity
             finish();
         }
 
+        arenaWrites.stop();
+        leaderboardWrites.stop();
+
         handlerThread.quitSafely();
         try {
             handlerThread.join();
@@ -524,7 +674,9 @@ public abstract class CameraActivity extends AppCompatActivity
             if (yuvBytes[i] == null) {
                 yuvBytes[i] = new byte[buffer.capacity()];
             }
+            buffer.rewind();
             buffer.get(yuvBytes[i]);
+            buffer.rewind();
         }
     }
 
@@ -560,9 +712,7 @@ public abstract class CameraActivity extends AppCompatActivity
     }
 
     protected void readyForNextImage() {
-        if (postInferenceCallback != null) {
-            postInferenceCallback.run();
-        }
+        postInferenceCallback.run();
     }
 
     protected int getScreenOrientation() {
@@ -589,12 +739,12 @@ public abstract class CameraActivity extends AppCompatActivity
         // Setup Blue Ball
         detectedSpheroBalls.put(Color.BLUE, new DetectedSpheroBall());
         databaseColorBlue = databaseReferenceDevice.child("player_blue");
-        databaseColorBlue.child("username").setValue("__reserved__");
-        databaseColorBlue.child("game_state").setValue(MainActivity.GAME_STATE_WAITING);
-        databaseColorBlue.child("heading").setValue(-1);
-        databaseColorBlue.child("offset").setValue(-1);
-        databaseColorBlue.child("score").setValue(0);
-        databaseColorBlue.child("vibrate").setValue(false);
+        arenaWrites.setAlways("player_blue/username", "__reserved__");
+        arenaWrites.setAlways("player_blue/game_state", MainActivity.GAME_STATE_WAITING);
+        arenaWrites.set("player_blue/heading", -1);
+        arenaWrites.set("player_blue/offset", -1);
+        arenaWrites.set("player_blue/score", 0);
+        arenaWrites.setAlways("player_blue/vibrate", false);
         databaseColorBlue.child("username").addValueEventListener(
                 new ValueEventListener() {
                     @Override
@@ -616,6 +766,7 @@ public abstract class CameraActivity extends AppCompatActivity
                 }
         );
         detectedSpheroBalls.get(Color.BLUE).databaseReference = databaseColorBlue;
+        detectedSpheroBalls.get(Color.BLUE).databasePath = "player_blue";
         if (SpheroCalibration.blueCheck == -1) {
             HUMAN_COLORS.add(Color.BLUE);
         } else {
@@ -626,12 +777,12 @@ public abstract class CameraActivity extends AppCompatActivity
         // Setup Green Ball
         detectedSpheroBalls.put(Color.GREEN, new DetectedSpheroBall());
         databaseColorGreen = databaseReferenceDevice.child("player_green");
-        databaseColorGreen.child("username").setValue("__reserved__");
-        databaseColorGreen.child("game_state").setValue(MainActivity.GAME_STATE_WAITING);
-        databaseColorGreen.child("heading").setValue(-1);
-        databaseColorGreen.child("offset").setValue(-1);
-        databaseColorGreen.child("score").setValue(0);
-        databaseColorGreen.child("vibrate").setValue(false);
+        arenaWrites.setAlways("player_green/username", "__reserved__");
+        arenaWrites.setAlways("player_green/game_state", MainActivity.GAME_STATE_WAITING);
+        arenaWrites.set("player_green/heading", -1);
+        arenaWrites.set("player_green/offset", -1);
+        arenaWrites.set("player_green/score", 0);
+        arenaWrites.setAlways("player_green/vibrate", false);
         databaseColorGreen.child("username").addValueEventListener(
                 new ValueEventListener() {
                     @Override
@@ -653,6 +804,7 @@ public abstract class CameraActivity extends AppCompatActivity
                 }
         );
         detectedSpheroBalls.get(Color.GREEN).databaseReference = databaseColorGreen;
+        detectedSpheroBalls.get(Color.GREEN).databasePath = "player_green";
         if (SpheroCalibration.greenCheck == -1) {
             HUMAN_COLORS.add(Color.GREEN);
         } else {
@@ -663,12 +815,12 @@ public abstract class CameraActivity extends AppCompatActivity
         // Setup Pink Ball
         detectedSpheroBalls.put(Color.MAGENTA, new DetectedSpheroBall());
         databaseColorPink = databaseReferenceDevice.child("player_pink");
-        databaseColorPink.child("username").setValue("__reserved__");
-        databaseColorPink.child("game_state").setValue(MainActivity.GAME_STATE_WAITING);
-        databaseColorPink.child("heading").setValue(-1);
-        databaseColorPink.child("offset").setValue(-1);
-        databaseColorPink.child("score").setValue(0);
-        databaseColorPink.child("vibrate").setValue(false);
+        arenaWrites.setAlways("player_pink/username", "__reserved__");
+        arenaWrites.setAlways("player_pink/game_state", MainActivity.GAME_STATE_WAITING);
+        arenaWrites.set("player_pink/heading", -1);
+        arenaWrites.set("player_pink/offset", -1);
+        arenaWrites.set("player_pink/score", 0);
+        arenaWrites.setAlways("player_pink/vibrate", false);
         databaseColorPink.child("username").addValueEventListener(
                 new ValueEventListener() {
                     @Override
@@ -690,6 +842,7 @@ public abstract class CameraActivity extends AppCompatActivity
                 }
         );
         detectedSpheroBalls.get(Color.MAGENTA).databaseReference = databaseColorPink;
+        detectedSpheroBalls.get(Color.MAGENTA).databasePath = "player_pink";
         if (SpheroCalibration.pinkCheck == -1) {
             HUMAN_COLORS.add(Color.MAGENTA);
         } else {
@@ -701,12 +854,12 @@ public abstract class CameraActivity extends AppCompatActivity
         // Setup Red Ball
         detectedSpheroBalls.put(Color.RED, new DetectedSpheroBall());
         databaseColorRed = databaseReferenceDevice.child("player_red");
-        databaseColorRed.child("username").setValue("__reserved__");
-        databaseColorRed.child("game_state").setValue(MainActivity.GAME_STATE_WAITING);
-        databaseColorRed.child("heading").setValue(-1);
-        databaseColorRed.child("offset").setValue(-1);
-        databaseColorRed.child("score").setValue(0);
-        databaseColorRed.child("vibrate").setValue(false);
+        arenaWrites.setAlways("player_red/username", "__reserved__");
+        arenaWrites.setAlways("player_red/game_state", MainActivity.GAME_STATE_WAITING);
+        arenaWrites.set("player_red/heading", -1);
+        arenaWrites.set("player_red/offset", -1);
+        arenaWrites.set("player_red/score", 0);
+        arenaWrites.setAlways("player_red/vibrate", false);
         databaseColorRed.child("username").addValueEventListener(
                 new ValueEventListener() {
                     @Override
@@ -728,6 +881,7 @@ public abstract class CameraActivity extends AppCompatActivity
                 }
         );
         detectedSpheroBalls.get(Color.RED).databaseReference = databaseColorRed;
+        detectedSpheroBalls.get(Color.RED).databasePath = "player_red";
         if (SpheroCalibration.redCheck == -1) {
             HUMAN_COLORS.add(Color.RED);
         } else {
@@ -18,6 +18,8 @@ limitations under the License.
 import android.graphics.Bitmap;
 import android.graphics.RectF;
 
+import java.nio.ByteBuffer;
+
 /**
  * Generic interface for interacting with different recognition engines.
  */
@@ -40,7 +42,7 @@ public interface Classifier {
         /**
          * A sortable score for how good the recognition is relative to others. Higher should be better.
          */
-        private Float confidence;
+        private float confidence;
 
         /** Optional location within the source image for the location of the recognized object. */
         private RectF location;
@@ -48,7 +50,7 @@ public interface Classifier {
         private int color;
 
         public Recognition(
-                final String id, final String title, final Float confidence, final RectF location, final int color) {
+                final String id, final String title, final float confidence, final RectF location, final int color) {
             this.id = id;
             this.title = title;
             this.confidence = confidence;
@@ -64,11 +66,12 @@ public interface Classifier {
             return title;
         }
 
-        public Float getConfidence() {
+        public float getConfidence() {
             return confidence;
         }
 
-        public void setConfidence(Float confidence) {
+        // A primitive, so updating a tracked recognition every frame does not box a Float.
+        public void setConfidence(float confidence) {
             this.confidence = confidence;
         }
 
@@ -95,9 +98,7 @@ public interface Classifier {
                 resultString += title + " ";
             }
 
-            if (confidence != null) {
-                resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-            }
+            resultString += String.format("(%.1f%%) ", confidence * 100.0f);
 
             if (location != null) {
                 resultString += location + " ";
@@ -107,11 +108,43 @@ public interface Classifier {
         }
     }
 
-    void recognizeImage(Bitmap bitmap);
+    /**
+     * The raw outputs of one inference. Each holder is written by
+     * {@link #runInference(ByteBuffer, Outputs)} and decoded later by
+     * {@link #publishResults(Outputs)}, so the interpreter can move on to the next frame meanwhile.
+     */
+    interface Outputs {
+    }
+
+    /** Writes a bitmap of the model input size into {@code input}. */
+    void loadImage(Bitmap bitmap, ByteBuffer input);
+
+    /** Allocates an input buffer for {@link #runInference(ByteBuffer, Outputs)}. */
+    ByteBuffer createInputBuffer();
+
+    /** Allocates an outputs holder for {@link #runInference(ByteBuffer, Outputs)}. */
+    Outputs createOutputs();
+
+    /**
+     * Runs the model on {@code input} and writes its raw outputs into {@code outputs}, without
+     * touching any shared state, so several classifiers can run at once.
+     */
+    void runInference(ByteBuffer input, Outputs outputs);
+
+    /** Decodes {@code outputs} into the detected objects. */
+    void publishResults(Outputs outputs);
+
+    /**
+     * Sets the region of the full model input frame that was scaled into the input, as passed to
+     * {@link com.example.freeze_tag.object_detection.env.ImageUtils#getTransformationMatrix}, so
+     * detections are mapped back into full frame coordinates.
+     */
+    void setRegionOfInterest(RectF region);
 
     void enableStatLogging(final boolean debug);
 
     String getStatString();
 
+    /** Releases the interpreter, running inference afterwards throws an IllegalStateException. */
     void close();
 }
@@ -20,12 +20,14 @@ import android.graphics.Color;
 
 import com.google.firebase.database.DatabaseReference;
 import com.example.freeze_tag.MainActivity;
-import com.example.freeze_tag.commander.CommanderInput;
-import com.orbotix.macro.MacroObject;
-import com.orbotix.macro.cmd.Delay;
-import com.orbotix.macro.cmd.Fade;
+import com.example.freeze_tag.commander.CommanderHistory;
+import com.example.freeze_tag.commander.Headings;
+import com.example.freeze_tag.commander.TfLiteCommander;
+import com.example.freeze_tag.object_detection.tracking.KalmanFilter2D;
+import com.example.freeze_tag.robot.LedEffect;
+import com.example.freeze_tag.robot.Trajectory;
 
-import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -43,13 +45,35 @@ public class DetectedSpheroBall {
     // Keeps track of where the Sphero is
     private Classifier.Recognition recognition;
 
+    // Smooths the detected center of the Sphero. The game reads positions from here rather than
+    // the raw boxes, so jitter doesn't flip the commander's heading.
+    private static final double POSITION_NOISE = 0.005;
+    private static final double ACCELERATION_NOISE = 0.5;
+    private static final double MAX_POSITION_JUMP = 0.15;
+    private static final long MAX_MEASUREMENT_GAP_MS = 1000;
+    private final KalmanFilter2D filter = new KalmanFilter2D(
+            POSITION_NOISE, ACCELERATION_NOISE, MAX_POSITION_JUMP, MAX_MEASUREMENT_GAP_MS);
+    // Set when the box was moved by a detection or a tracker and not folded into the filter yet.
+    private volatile boolean measured = false;
+    // The time the game is played at, positions are read for this time.
+    private long stateTimestampMs;
+    // How far ahead of stateTimestampMs the commander steers, so it aims for where the Spheros
+    // will be once the command reaches the robot.
+    private long lookAheadMs;
+
     // Contains the information used for the commander model
-    private ArrayList<CommanderInput> commanderInputs = new ArrayList<>();
-    private float[][] commands = new float[1][20];
+    private CommanderHistory commanderHistory;
+    private float[][] commands = new float[1][TfLiteCommander.NUM_HEADINGS];
+    // Where the bot was steered from in the current game step.
+    private float commandBotX;
+    private float commandBotY;
     // The target coordinates are used to tell the Sphero where it should go, if it does not need to
     // avoid another obstacle or Sphero.
     public double targetX = -1;
     public double targetY = -1;
+    // Last heading sent and its game time, to plan trajectories with.
+    private int lastHeading = -1;
+    private long lastHeadingTimeMs;
 
     // Game State Information
     public int score = 0;
@@ -58,6 +82,8 @@ public class DetectedSpheroBall {
 
     // Used to sync information between devices
     public DatabaseReference databaseReference;
+    // Path of the player under the arena, what the game writes through CameraActivity.arenaWrites.
+    public String databasePath;
 
     // Keeps track of the nearest blocks to the Sphero
     private int blockCount = 0;
@@ -94,70 +120,148 @@ public class DetectedSpheroBall {
         return index;
     }
 
+    /** Marks the location of the recognition as freshly measured. */
+    public void setMeasured() {
+        measured = true;
+    }
+
+    /** Whether the location was measured since the last {@link #updateState(long, long)}. */
+    public boolean isMeasured() {
+        return measured;
+    }
+
+    /**
+     * Folds a fresh measurement of the location, if any, into the filter and moves the game state
+     * to {@code timestampMs}, the capture time of the frame it was measured in.
+     *
+     * @param lookAheadMs The expected delay from the capture until a command reaches the robot.
+     */
+    public void updateState(long timestampMs, long lookAheadMs) {
+        if (measured && recognition != null) {
+            measured = false;
+            filter.update(recognition.getLocation().centerX(), recognition.getLocation().centerY(),
+                    timestampMs);
+        }
+        stateTimestampMs = timestampMs;
+        this.lookAheadMs = lookAheadMs;
+    }
+
+    /** The filtered center of the Sphero, in the normalized coordinates of the detector. */
+    public float getCenterX() {
+        return filter.isInitialized()
+                ? filter.getX(stateTimestampMs) : recognition.getLocation().centerX();
+    }
+
+    public float getCenterY() {
+        return filter.isInitialized()
+                ? filter.getY(stateTimestampMs) : recognition.getLocation().centerY();
+    }
 
+    /** The center of the Sphero predicted for when a command sent now reaches the robot. */
+    public float getPredictedCenterX() {
+        return filter.isInitialized()
+                ? filter.getX(stateTimestampMs + lookAheadMs) : recognition.getLocation().centerX();
+    }
+
+    public float getPredictedCenterY() {
+        return filter.isInitialized()
+                ? filter.getY(stateTimestampMs + lookAheadMs) : recognition.getLocation().centerY();
+    }
+
+    public KalmanFilter2D getFilter() {
+        return filter;
+    }
+
+
+    /** Plays one game step, running the commander for this Sphero alone. */
     public void play() {
+        float[] headingScores = null;
+        if (prepareCommand()) {
+            CameraActivity.tfLiteCommander.getCommands(commanderHistory, commands, getAggressiveRating());
+            headingScores = commands[0];
+        }
+        play(headingScores);
+    }
+
+    /**
+     * First half of a game step: adds the latest positions to the commander inputs. Lets the game
+     * run the commander for every Sphero at once before calling {@link #play(float[])}.
+     *
+     * @return True if the commander should run on {@link #getCommanderHistory()}.
+     */
+    public boolean prepareCommand() {
+        // Human Controlled, or frozen
+        if (!bot || isFrozen) {
+            return false;
+        }
+
+        // Steer using where the bot and the human player will be when the command is carried out.
+        commandBotY = 1.0f - getPredictedCenterY();
+        commandBotX = getPredictedCenterX();
+        DetectedSpheroBall humanSpheroBall = CameraActivity.detectedSpheroBalls.get(CameraActivity.HUMAN_COLORS.get(0));
+        return updateCommanderInputs(humanSpheroBall, commandBotX, commandBotY);
+    }
+
+    /**
+     * Second half of a game step.
+     *
+     * @param headingScores The commander's output for this Sphero, null if
+     *  {@link #prepareCommand()} returned false.
+     */
+    public void play(float[] headingScores) {
         // Human Controlled
         if (!bot) {
             return;
         }
 
         // AI controlled
-        runAwayCommanderModel();
+        runAwayCommanderModel(headingScores);
+    }
+
+    public CommanderHistory getCommanderHistory() {
+        return commanderHistory;
     }
 
     // In this game we use the AI to run away from the Human Player
-    private void runAwayCommanderModel() {
+    private void runAwayCommanderModel(float[] headingScores) {
         // If frozen, signify to the human player that the ball is frozen by blinking.
         if (isFrozen) {
-            MacroObject macro = new MacroObject();
-            // Blink over the period of 1 second
-            macro.addCommand( new Fade( 64, 64, 64, 250 ) );
-            macro.addCommand( new Delay( 250 ) );
-            macro.addCommand( new Fade( 0, 0, 0, 250 ) );
-            macro.addCommand( new Delay( 250 ) );
-            macro.addCommand( new Fade( 64, 64, 64, 250 ) );
-            macro.addCommand( new Delay( 250 ) );
-            macro.addCommand( new Fade( 0, 0, 0, 250 ) );
-            macro.addCommand( new Delay( 250 ) );
-
-            //Send the macro to the robot and play
-            macro.setMode( MacroObject.MacroObjectMode.Normal );
-            macro.setRobot( MainActivity.spheroRobots.get(index).getRobot() );
-            macro.playMacro();
+            // Blinks on the Sphero until unfrozen, only the first call each time sends anything.
+            MainActivity.spheroCommands.get(index).startEffect(LedEffect.FROZEN_BLINK);
             return;
         }
 
-        // Use current detected location and the human player's detected location.
-        float botY = 1.0f - recognition.getLocation().centerY();
-        float botX = recognition.getLocation().centerX();
         DetectedSpheroBall humanSpheroBall = CameraActivity.detectedSpheroBalls.get(CameraActivity.HUMAN_COLORS.get(0));
 
-        // Using the latest information, get a heading from the commander model.
-        runCommanderModel(humanSpheroBall, botX, botY);
+        // Using the latest information, act on the heading from the commander model.
+        if (headingScores != null) {
+            sendCommand(headingScores, commandBotX, commandBotY);
+        }
 
         if (checkOverlap(humanSpheroBall) && !isFrozen) {
             isFrozen = true;
             CameraActivity.frozenBotPoints.add(this);
-            MainActivity.spheroRobots.get(index).setLed(0, 0, 0);
-            MainActivity.spheroRobots.get(index).stop();
-            humanSpheroBall.databaseReference.child("vibrate").setValue(true); // Vibrate when they freeze someone
+            MainActivity.spheroCommands.get(index).setLed(0, 0, 0);
+            MainActivity.spheroCommands.get(index).stop();
+            CameraActivity.arenaWrites.setAlways(humanSpheroBall.databasePath + "/vibrate", true); // Vibrate when they freeze someone
         } else {
             for (DetectedSpheroBall detectedSpheroBall : CameraActivity.detectedSpheroBalls.values()) {
                 if (!isFrozen && detectedSpheroBall.isBot() && detectedSpheroBall.isFrozen &&
                         detectedSpheroBall.getRecognition().getColor() != recognition.getColor() &&
                         checkOverlap(detectedSpheroBall)) {
                     detectedSpheroBall.isFrozen = false;
-                    MainActivity.spheroRobots.get(detectedSpheroBall.index).setLed(0.25f, 0.25f, 0.25f);
+                    MainActivity.spheroCommands.get(detectedSpheroBall.index).setLed(0.25f, 0.25f, 0.25f);
                 }
             }
         }
     }
 
-    private void runCommanderModel(DetectedSpheroBall detectedSpheroBall, float botX, float botY) {
+    /** Adds the latest positions to the commander inputs, returns true once there are enough. */
+    private boolean updateCommanderInputs(DetectedSpheroBall detectedSpheroBall, float botX, float botY) {
         // Get human player's coordinates
         // (the x-y axis between the camera and commander model are different and need to be adjusted)
-        float humanY = 1.0f - detectedSpheroBall.getRecognition().getLocation().centerY();
-        float humanX = detectedSpheroBall.getRecognition().getLocation().centerX();
+        float humanY = 1.0f - detectedSpheroBall.getPredictedCenterY();
+        float humanX = detectedSpheroBall.getPredictedCenterX();
         // Get preset target location
         float targetY = getXTarget();
         float targetX = getYTarget();
@@ -167,64 +271,73 @@ public class DetectedSpheroBall {
             if (!frozenBot.isFrozen) {
                 CameraActivity.frozenBotPoints.remove(0);
             } else {
-                targetY = 1.0f - frozenBot.getRecognition().getLocation().centerY();
-                targetX = frozenBot.getRecognition().getLocation().centerX();
+                targetY = 1.0f - frozenBot.getCenterY();
+                targetX = frozenBot.getCenterX();
             }
         }
 
         findClosestBlocks(botX, botY);
 
         if (blockCount >= 2) {
-            commanderInputs.add(new CommanderInput(botY, botX, targetY, targetX, humanY, humanX, block1Y, block1X, block2Y, block2X));
-
-            if (commanderInputs.size() > MainActivity.NUM_COMMANDER_INPUTS) {
-                commanderInputs.remove(0);
+            if (commanderHistory == null) {
+                commanderHistory = new CommanderHistory(CameraActivity.tfLiteCommander.getHistoryLength());
             }
+            commanderHistory.add(botX, botY, targetX, targetY, humanX, humanY, block1X, block1Y, block2X, block2Y);
+            return commanderHistory.isFull();
+        }
+        return false;
+    }
 
-            if (commanderInputs.size() == MainActivity.NUM_COMMANDER_INPUTS) {
-                // Call the commander model and each sphero color has a pre-set aggressiveness rating
-                if (bot) {
-                    // Send the command to the Sphero
-                    MainActivity.spheroRobots.get(index).drive(getHeading(botX, botY, getAggressiveRating()), 0.2f);
-                } else {
-                    // Depending on game, if no human player hits the play button,
-                    // use AI to play for the human, so as not to have an idle Sphero ball.
-                    databaseReference.child("heading").setValue(getHeading(botX, botY, getAggressiveRating()));
-                }
+    private void sendCommand(float[] headingScores, float botX, float botY) {
+        // Each sphero color has a pre-set aggressiveness rating, already passed to the commander.
+        if (bot) {
+            // Send the command to the Sphero
+            final int heading = getHeading(headingScores, botX, botY);
+            if (MainActivity.SPHERO_TRAJECTORY_STEPS > 0) {
+                MainActivity.spheroCommands.get(index).drive(planTrajectory(heading, 0.2f));
+            } else {
+                MainActivity.spheroCommands.get(index).drive(heading, 0.2f);
             }
+        } else {
+            // Depending on game, if no human player hits the play button,
+            // use AI to play for the human, so as not to have an idle Sphero ball.
+            CameraActivity.arenaWrites.set(databasePath + "/heading", getHeading(headingScores, botX, botY));
         }
     }
 
-    private int getHeading(float botX, float botY, float aggressiveness) {
-        // Call the commander model
-        CameraActivity.tfLiteCommander.getCommands(commanderInputs, commands, aggressiveness);
+    /** Plans the next few steps from {@code heading}, keeping up the bot's recent turn. */
+    private Trajectory planTrajectory(int heading, float speed) {
+        float degreesPerSecond = 0;
+        final long elapsedMs = stateTimestampMs - lastHeadingTimeMs;
+        if (lastHeading >= 0 && elapsedMs > 0) {
+            // Shortest way from the last heading, between -180 and 180 degrees.
+            final int turn = ((heading - lastHeading) % 360 + 540) % 360 - 180;
+            final float maxRate = MainActivity.SPHERO_TRAJECTORY_MAX_TURN_RATE;
+            degreesPerSecond = Math.max(-maxRate, Math.min(maxRate, turn * 1000.0f / elapsedMs));
+        }
+        lastHeading = heading;
+        lastHeadingTimeMs = stateTimestampMs;
+
+        return Trajectory.turning(heading, degreesPerSecond, speed,
+                MainActivity.SPHERO_TRAJECTORY_STEPS, MainActivity.SPHERO_TRAJECTORY_STEP_MS);
+    }
 
+    private int getHeading(float[] headingScores, float botX, float botY) {
         // Find the heading with the highest confidence and convert the value to degrees used by the
         // Sphero's directional settings.
-        int maxIndex = 0;
-        float maxValue = Float.MIN_VALUE;
-        for (int i = 0; i < commands[0].length; i++) {
-            if (commands[0][i] > maxValue) {
-                maxIndex = i;
-                maxValue = commands[0][i];
-            }
-        }
-
-        float radians = (float) (maxIndex * (Math.PI / 10));
-        int heading = (int) ((radians * 180.0 / Math.PI) % 360);
-        heading = (450 - heading) % 360;
+        final int heading = Headings.best(headingScores);
 
-        this.targetX = botX + 0.1 * Math.cos(radians);
-        this.targetY = 1 - (botY + 0.1 * Math.sin(radians));
+        this.targetX = botX + 0.1 * Headings.cos(heading);
+        this.targetY = 1 - (botY + 0.1 * Headings.sin(heading));
 
-        return heading;
+        return Headings.spheroDegrees(heading);
     }
 
     private boolean checkOverlap(DetectedSpheroBall targetSpheroBall) {
         // Used to determine if a sphero is tagged or not based on the distance from each Sphero's center
         double currentDistance = Math.sqrt(
-                Math.pow(targetSpheroBall.recognition.getLocation().centerX() - recognition.getLocation().centerX(), 2) +
-                        Math.pow(targetSpheroBall.recognition.getLocation().centerY() - recognition.getLocation().centerY(), 2));
+                Math.pow(targetSpheroBall.getCenterX() - getCenterX(), 2) +
+                        Math.pow(targetSpheroBall.getCenterY() - getCenterY(), 2));
 
         if (currentDistance <= OVERLAP_DISTANCE) {
             return true;
@@ -269,7 +382,9 @@ public class DetectedSpheroBall {
         double minDistance1 = Double.MAX_VALUE;
         double minDistance2 = Double.MAX_VALUE;
 
-        for (Classifier.Recognition r : CameraActivity.detectedBlocks) {
+        final List<Classifier.Recognition> blocks = CameraActivity.detectedBlocks;
+        for (int i = 0; i < blocks.size(); i++) {
+            final Classifier.Recognition r = blocks.get(i);
             if (r.getLocation().left != 0 && r.getLocation().top != 0 &&
                     r.getLocation().right != 0 && r.getLocation().bottom != 0) {
 
@@ -294,7 +409,7 @@ public class DetectedSpheroBall {
         }
     }
 
-    private float getAggressiveRating() {
+    public float getAggressiveRating() {
         if (recognition.getColor() == Color.GREEN) {
             return 0.0f;
         } else {
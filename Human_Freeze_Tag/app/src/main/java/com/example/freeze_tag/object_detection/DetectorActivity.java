@@ -30,11 +30,21 @@ import android.util.TypedValue;
 
 import com.example.freeze_tag.MainActivity;
 import com.example.freeze_tag.R;
+import com.example.freeze_tag.commander.CommanderHistory;
+import com.example.freeze_tag.commander.TfLiteCommander;
 import com.example.freeze_tag.object_detection.OverlayView.DrawCallback;
 import com.example.freeze_tag.object_detection.env.BorderedText;
 import com.example.freeze_tag.object_detection.env.ImageUtils;
-
+import com.example.freeze_tag.object_detection.env.PixelConversion;
+import com.example.freeze_tag.object_detection.env.YuvSampler;
+import com.example.freeze_tag.object_detection.tracking.CorrelationTracker;
+import com.example.freeze_tag.pipeline.PipelineStage;
+import com.example.freeze_tag.pipeline.SlotQueue;
+import com.example.freeze_tag.robot.CommandCoalescer;
+
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
 import java.util.Vector;
@@ -52,16 +62,110 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
 
     private long lastProcessingTimeMs;
     private Bitmap rgbFrameBitmap = null;
+    private Bitmap rgb565FrameBitmap = null;
     private Bitmap croppedBitmap = null;
 
-    private boolean computingDetection = false;
-
+    private int frameDecimation = 1;
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
 
     private static final boolean MAINTAIN_ASPECT = true;
 
-    private byte[] luminanceCopy;
+    // The part of the frame the detector is fed, normalized to the full model input frame. The
+    // whole input is spent on it and detections are mapped back to the full frame, so the rest of
+    // the game keeps working in full frame coordinates. Only narrow it once the arena has been
+    // measured in the camera frame, and keep it square: the input is stretched to fill the model.
+    private static final RectF DETECTION_REGION = new RectF(0.0f, 0.0f, 1.0f, 1.0f);
+
+    // Sample the camera frame straight into the model input instead of going through
+    // rgbFrameBitmap and croppedBitmap. The bitmap path is still used while debugging,
+    // so the cropped input can be shown on screen.
+    private static final boolean USE_FUSED_PREPROCESSING = true;
+    private YuvSampler yuvSampler;
+
+    // When the bitmap path is used with the android.hardware.Camera API, convert frames to 16-bit
+    // RGB565 instead of ARGB8888 and expand them straight into the model input. Halves the memory
+    // traffic of the frame on low-end devices.
+    private static final boolean USE_RGB565_FRAMES = false;
+    private Matrix previewToCropTransform;
+
+    // Frames take one of two paths, chosen by MainActivity.TF_LITE_OBJECT_DETECTION_NUM_INTERPRETERS.
+    // With one interpreter, capture, conversion and preprocessing run on the camera thread, then
+    // inference and the game run on their own threads, connected by SlotQueues, so the next frame
+    // is prepared while the current one is in inference. With more, a DetectorPool runs inference
+    // on several frames at once and the game runs on its workers. Either way the Sphero commands
+    // the game sends go out from the threads of MainActivity.spheroDispatcher.
+    // Inference always works on the newest frame, every detection reaches the game.
+    private static final SlotQueue.DropPolicy FRAME_DROP_POLICY = SlotQueue.DropPolicy.LATEST_WINS;
+    private static final SlotQueue.DropPolicy DETECTION_DROP_POLICY = SlotQueue.DropPolicy.BLOCK;
+    private static final int FRAME_SLOTS = 3;
+    private static final int DETECTION_SLOTS = 2;
+
+    // In the pipeline, the detector only runs on every DETECTION_INTERVAL-th frame, or as soon as
+    // a tracker loses its Sphero. In between, CorrelationTrackers follow the Spheros on the
+    // luminance plane, so their positions still update at camera rate.
+    private static final boolean USE_TRACKING = true;
+    private static final int DETECTION_INTERVAL = 3;
+    private static final float MIN_TRACKING_CORRELATION = 0.7f;
+    // How far in preview pixels a Sphero may move from one frame to the next.
+    private static final int TRACKING_SEARCH_RADIUS = 8;
+
+    /** A preprocessed frame, ready for inference. */
+    private static class FrameSlot extends SlotQueue.Slot {
+        final ByteBuffer input;
+        // False if the frame is only tracked, then the input is left untouched.
+        boolean detect;
+        byte[] luminance;
+        int luminanceStride;
+
+        FrameSlot(ByteBuffer input) {
+            this.input = input;
+        }
+    }
+
+    /** The raw detections of a frame, ready for the game. */
+    private static class DetectionSlot extends SlotQueue.Slot {
+        final Classifier.Outputs outputs;
+        long inferenceTimeMs;
+        boolean detected;
+        byte[] luminance;
+        int luminanceStride;
+
+        DetectionSlot(Classifier.Outputs outputs) {
+            this.outputs = outputs;
+        }
+    }
+
+    private volatile SlotQueue<FrameSlot> frameQueue;
+    private SlotQueue<DetectionSlot> detectionQueue;
+    private PipelineStage<FrameSlot, DetectionSlot> inferenceStage;
+    private PipelineStage<DetectionSlot, SlotQueue.Slot> gameStage;
+    private long frameSequence = 0;
+
+    // Trackers by Sphero color, only used on the game stage.
+    private final HashMap<Integer, CorrelationTracker> trackers = new HashMap<>();
+    // Map normalized detector coordinates to pixels of the camera frame and back.
+    private Matrix normalizedToFrameTransform;
+    private Matrix frameToNormalizedTransform;
+    private final float[] trackingPoint = new float[2];
+    private final RectF trackingRect = new RectF();
+    // Set by the game stage when a tracker lost its Sphero, the next frame is then detected.
+    private volatile boolean trackingLost = true;
+    private int framesSinceDetection = 0;
+
+    // Extrapolate the Spheros forward by the delay from the camera to the robot before steering:
+    // capture to game, the time the game takes to send its commands, and the Bluetooth latency.
+    private static final boolean COMPENSATE_LATENCY = true;
+    private static final long BLUETOOTH_LATENCY_MS = 50;
+    private static final long MAX_LOOK_AHEAD_MS = 500;
+    private volatile long lastCaptureDelayMs;
+    private volatile long lastControlTimeMs;
+    private volatile long lastLookAheadMs;
+
+    // The bots the commander runs for in a game step, one row each.
+    private final DetectedSpheroBall[] commandRows = new DetectedSpheroBall[TfLiteCommander.MAX_BATCH_SIZE];
+    private final List<CommanderHistory> commanderBatch = new ArrayList<>();
+    private final float[] commanderAggressiveness = new float[TfLiteCommander.MAX_BATCH_SIZE];
 
     private BorderedText borderedText;
     OverlayView trackingOverlay;
@@ -70,9 +174,131 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
 
     @Override
     protected void onDestroy() {
+        if (inferenceStage != null) {
+            inferenceStage.stop();
+            gameStage.stop();
+        }
+        if (detectorPool != null) {
+            detectorPool.shutdown();
+            detectorPool = null;
+        }
         super.onDestroy();
     }
 
+    private void startPipeline(final Classifier detector) {
+        frameQueue = new SlotQueue<>("Frames", FRAME_SLOTS, FRAME_DROP_POLICY,
+                new SlotQueue.Factory<FrameSlot>() {
+                    @Override
+                    public FrameSlot create() {
+                        return new FrameSlot(detector.createInputBuffer());
+                    }
+                });
+        detectionQueue = new SlotQueue<>("Detections", DETECTION_SLOTS, DETECTION_DROP_POLICY,
+                new SlotQueue.Factory<DetectionSlot>() {
+                    @Override
+                    public DetectionSlot create() {
+                        return new DetectionSlot(detector.createOutputs());
+                    }
+                });
+
+        inferenceStage = new PipelineStage<>("inference", frameQueue, detectionQueue,
+                new PipelineStage.Worker<FrameSlot, DetectionSlot>() {
+                    @Override
+                    public boolean process(final FrameSlot frame, final DetectionSlot detection) {
+                        if (frame.detect) {
+                            final long startTime = SystemClock.uptimeMillis();
+                            detector.runInference(frame.input, detection.outputs);
+                            detection.inferenceTimeMs = SystemClock.uptimeMillis() - startTime;
+                        }
+                        detection.detected = frame.detect;
+
+                        // Pass the luminance on by swapping arrays rather than copying it.
+                        final byte[] luminance = detection.luminance;
+                        detection.luminance = frame.luminance;
+                        detection.luminanceStride = frame.luminanceStride;
+                        frame.luminance = luminance;
+                        return true;
+                    }
+                });
+
+        gameStage = new PipelineStage<>("game", detectionQueue, null,
+                new PipelineStage.Worker<DetectionSlot, SlotQueue.Slot>() {
+                    @Override
+                    public boolean process(final DetectionSlot detection, final SlotQueue.Slot unused) {
+                        if (detection.detected) {
+                            detector.publishResults(detection.outputs);
+                            lastProcessingTimeMs = detection.inferenceTimeMs;
+                            if (USE_TRACKING) {
+                                startTracking(detection.luminance, detection.luminanceStride);
+                            }
+                        } else {
+                            track(detection.luminance, detection.luminanceStride);
+                        }
+                        trackingOverlay.postInvalidate();
+                        requestRender();
+                        checkGameStart();
+                        playGame(detection.timestampMs);
+                        return false;
+                    }
+                });
+
+        inferenceStage.start();
+        gameStage.start();
+    }
+
+    /**
+     * Takes a template of every Sphero at the position the detector just found it at. The trackers
+     * of Spheros it missed are dropped, their last box is stale and they are predicted until the
+     * next detection finds them.
+     */
+    private void startTracking(final byte[] luminance, final int stride) {
+        boolean lost = false;
+        for (final Integer color : detectedSpheroBalls.keySet()) {
+            final DetectedSpheroBall detectedSpheroBall = detectedSpheroBalls.get(color);
+            if (!detectedSpheroBall.isDetectedOnce() || !detectedSpheroBall.isMeasured()) {
+                trackers.remove(color);
+                continue;
+            }
+            CorrelationTracker tracker = trackers.get(color);
+            if (tracker == null) {
+                tracker = new CorrelationTracker(TRACKING_SEARCH_RADIUS);
+                trackers.put(color, tracker);
+            }
+
+            trackingRect.set(detectedSpheroBall.getRecognition().getLocation());
+            normalizedToFrameTransform.mapRect(trackingRect);
+            tracker.setTemplate(luminance, previewWidth, previewHeight, stride,
+                    trackingRect.centerX(), trackingRect.centerY(),
+                    (int) Math.min(trackingRect.width(), trackingRect.height()));
+            lost |= !tracker.isValid();
+        }
+        trackingLost = lost;
+    }
+
+    /** Moves every tracked Sphero to where its tracker found it in this frame. */
+    private void track(final byte[] luminance, final int stride) {
+        boolean lost = false;
+        for (final Integer color : trackers.keySet()) {
+            final CorrelationTracker tracker = trackers.get(color);
+            if (!tracker.isValid()) {
+                continue;
+            }
+            if (tracker.track(luminance, previewWidth, previewHeight, stride) < MIN_TRACKING_CORRELATION) {
+                // Leave the Sphero where it was, the next frame goes to the detector.
+                lost = true;
+                continue;
+            }
+
+            trackingPoint[0] = tracker.getCenterX();
+            trackingPoint[1] = tracker.getCenterY();
+            frameToNormalizedTransform.mapPoints(trackingPoint);
+            final RectF location = detectedSpheroBalls.get(color).getRecognition().getLocation();
+            location.offset(trackingPoint[0] - location.centerX(), trackingPoint[1] - location.centerY());
+            detectedSpheroBalls.get(color).setMeasured();
+        }
+        trackingLost = lost;
+    }
+
     @Override
     public void onPreviewSizeChosen(final Size size, final int rotation) {
         final float textSizePx =
@@ -89,18 +315,66 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
 
         sensorOrientation = rotation - getScreenOrientation();
 
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Bitmap.Config.ARGB_8888);
         croppedBitmap = Bitmap.createBitmap(cropSizex, cropSizey, Bitmap.Config.ARGB_8888);
 
+        // When the preview is at least twice the model input, convert it at a reduced size
+        // rather than scaling the full frame down afterwards.
+        frameDecimation = PixelConversion.getDecimationFactor(previewWidth, previewHeight, cropSizex);
+        setFrameDecimation(frameDecimation);
+
         frameToCropTransform =
                 ImageUtils.getTransformationMatrix(
-                        previewWidth, previewHeight,
+                        getRgbFrameWidth(), getRgbFrameHeight(),
                         cropSizex, cropSizey,
-                        sensorOrientation, MAINTAIN_ASPECT);
+                        sensorOrientation, MAINTAIN_ASPECT, DETECTION_REGION);
 
         cropToFrameTransform = new Matrix();
         frameToCropTransform.invert(cropToFrameTransform);
 
+        // The sampler reads the camera frame itself, so it works from the full preview size.
+        previewToCropTransform =
+                ImageUtils.getTransformationMatrix(
+                        previewWidth, previewHeight,
+                        cropSizex, cropSizey,
+                        sensorOrientation, MAINTAIN_ASPECT, DETECTION_REGION);
+        yuvSampler = new YuvSampler(previewWidth, previewHeight, cropSizex, cropSizey, previewToCropTransform);
+
+        // Detections are normalized to the full model input frame, whatever the detection region.
+        final Matrix cropToPreviewTransform = new Matrix();
+        ImageUtils.getTransformationMatrix(
+                previewWidth, previewHeight,
+                cropSizex, cropSizey,
+                sensorOrientation, MAINTAIN_ASPECT).invert(cropToPreviewTransform);
+        normalizedToFrameTransform = new Matrix();
+        normalizedToFrameTransform.setScale(cropSizex, cropSizey);
+        normalizedToFrameTransform.postConcat(cropToPreviewTransform);
+        frameToNormalizedTransform = new Matrix();
+        normalizedToFrameTransform.invert(frameToNormalizedTransform);
+
+        if (detectorPool != null) {
+            detectorPool.setRegionOfInterest(DETECTION_REGION);
+        } else {
+            tfLiteObjectDetection.setRegionOfInterest(DETECTION_REGION);
+        }
+
+        if (detectorPool == null) {
+            startPipeline(tfLiteObjectDetection);
+        } else {
+            // The pool publishes results in frame order on its own workers, the game runs there.
+            detectorPool.setListener(
+                    new DetectorPool.Listener() {
+                        @Override
+                        public void onResultsPublished(
+                                final long sequence, final long inferenceTimeMs, final long timestampMs) {
+                            lastProcessingTimeMs = inferenceTimeMs;
+                            trackingOverlay.postInvalidate();
+                            requestRender();
+                            checkGameStart();
+                            playGame(timestampMs);
+                        }
+                    });
+        }
+
         trackingOverlay = findViewById(R.id.tracking_overlay);
         trackingOverlay.addCallback(
                 new DrawCallback() {
@@ -111,13 +385,14 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
                         paint.setStyle(Paint.Style.STROKE);
                         paint.setStrokeWidth(12.0f);
 
-                        // Draw the area the camera will actually detect
+                        // Draw the area the camera will actually detect, the full frame is drawn
+                        // between h1 and h2.
                         final float h1 = .11f * CANVAS_HEIGHT * CANVAS_HEIGHT_PERCENTAGE;
                         final float h2 = .75f * CANVAS_HEIGHT * CANVAS_HEIGHT_PERCENTAGE;
-                        final RectF r = new RectF(0.0f * CANVAS_WIDTH,
-                                h1,
-                                1f * CANVAS_WIDTH,
-                                h2);
+                        final RectF r = new RectF(DETECTION_REGION.left * CANVAS_WIDTH,
+                                DETECTION_REGION.top * (h2 - h1) + h1,
+                                DETECTION_REGION.right * CANVAS_WIDTH,
+                                DETECTION_REGION.bottom * (h2 - h1) + h1);
                         canvas.drawRect(r, paint);
                         borderedText.drawText(canvas, r.left, r.bottom * (h2 - h1) + h1, "Camera Detection Area");
 
@@ -191,12 +466,26 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
                         lines.add("");
 
                         lines.add("Frame: " + previewWidth + "x" + previewHeight);
+                        lines.add("Decimation: " + frameDecimation);
                         lines.add("Frame: " + canvas2.getWidth() + "x" + canvas2.getHeight());
                         lines.add("Crop: " + copy.getWidth() + "x" + copy.getHeight());
                         lines.add("View: " + canvas.getWidth() + "x" + canvas.getHeight());
                         lines.add("Mine: " + CANVAS_WIDTH + "x" + CANVAS_HEIGHT);
                         lines.add("Rotation: " + sensorOrientation);
                         lines.add("Inference time: " + lastProcessingTimeMs + "ms");
+                        lines.add("Look-ahead: " + lastLookAheadMs + "ms (capture " + lastCaptureDelayMs
+                                + "ms, control " + lastControlTimeMs + "ms, Bluetooth " + BLUETOOTH_LATENCY_MS + "ms)");
+                        lines.add(tfLiteCommander.getStatString());
+                        for (CommandCoalescer commands : MainActivity.spheroCommands) {
+                            lines.add(commands.getStatString());
+                        }
+                        lines.addAll(MainActivity.spheroDispatcher.getStatStrings());
+                        lines.add(arenaWrites.getStatString());
+                        if (frameQueue != null) {
+                            lines.add(frameQueue.getStatString());
+                            lines.add(detectionQueue.getStatString());
+                            lines.add("Game time: " + gameStage.getLastProcessingTimeMs() + "ms");
+                        }
 
                         borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
                     }
@@ -205,81 +494,192 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
 
     @Override
     protected void processImage() {
-        byte[] originalLuminance = getLuminance();
+        final long timestampMs = getFrameTimestampMs();
         trackingOverlay.postInvalidate();
 
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
-            readyForNextImage();
-            return;
-        }
-        computingDetection = true;
+        final Classifier detector;
+        final ByteBuffer input;
+        FrameSlot frameSlot = null;
+        DetectorPool.Frame poolFrame = null;
+        if (detectorPool == null) {
+            if (frameQueue == null) {
+                // The pipeline starts once the preview size is known.
+                readyForNextImage();
+                return;
+            }
+            detector = tfLiteObjectDetection;
+            try {
+                frameSlot = frameQueue.claim();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (frameSlot == null) {
+                readyForNextImage();
+                return;
+            }
 
-        rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            frameSlot.detect = !USE_TRACKING || trackingLost || ++framesSinceDetection >= DETECTION_INTERVAL;
+            frameSlot.luminance = copyLuminance(frameSlot.luminance);
+            frameSlot.luminanceStride = getLuminanceStride();
+            frameSlot.sequence = frameSequence++;
+            frameSlot.timestampMs = timestampMs;
+            if (!frameSlot.detect) {
+                // Only tracked, the frame needs no conversion.
+                readyForNextImage();
+                frameQueue.publish(frameSlot);
+                return;
+            }
+            framesSinceDetection = 0;
+            input = frameSlot.input;
+        } else {
+            // Drop the frame if every interpreter is busy.
+            poolFrame = detectorPool.acquire();
+            if (poolFrame == null) {
+                readyForNextImage();
+                return;
+            }
+            detector = poolFrame.detector;
+            input = poolFrame.input;
+        }
 
-        if (luminanceCopy == null) {
-            luminanceCopy = new byte[originalLuminance.length];
+        // The input buffer is free to write to, as no detection is running on it.
+        final boolean fusedPreprocessing = USE_FUSED_PREPROCESSING && !isDebug();
+        final byte[] rgb565Bytes = !fusedPreprocessing && USE_RGB565_FRAMES ? getRgb565Bytes() : null;
+        final boolean rgb565Preprocessing = rgb565Bytes != null;
+        if (fusedPreprocessing) {
+            sampleFrame(yuvSampler, input);
+        } else if (rgb565Preprocessing) {
+            yuvSampler.sampleRGB565(rgb565Bytes, input);
+            if (isDebug()) {
+                if (rgb565FrameBitmap == null) {
+                    rgb565FrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Bitmap.Config.RGB_565);
+                }
+                rgb565FrameBitmap.copyPixelsFromBuffer(ByteBuffer.wrap(rgb565Bytes));
+            }
+        } else {
+            final int rgbFrameWidth = getRgbFrameWidth();
+            final int rgbFrameHeight = getRgbFrameHeight();
+            if (rgbFrameBitmap == null) {
+                rgbFrameBitmap = Bitmap.createBitmap(rgbFrameWidth, rgbFrameHeight, Bitmap.Config.ARGB_8888);
+            }
+            rgbFrameBitmap.setPixels(getRgbBytes(), 0, rgbFrameWidth, 0, 0, rgbFrameWidth, rgbFrameHeight);
         }
-        System.arraycopy(originalLuminance, 0, luminanceCopy, 0, originalLuminance.length);
+
         readyForNextImage();
 
-        final Canvas canvas = new Canvas(croppedBitmap);
-        canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+        if (rgb565Preprocessing) {
+            // Only drawn so the cropped input can be shown while debugging.
+            if (isDebug()) {
+                final Canvas canvas = new Canvas(croppedBitmap);
+                canvas.drawBitmap(rgb565FrameBitmap, previewToCropTransform, null);
+            }
+        } else if (!fusedPreprocessing) {
+            final Canvas canvas = new Canvas(croppedBitmap);
+            canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+        }
 
-        runInBackground(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        // Wait for a game to start
-                        if (!isPlaying) {
-                            if (startGame) {
-                                if (warmupTimer <= 0) {
-                                    // Set game state to playing
-                                    // Light up the AI controlled Spheros to signify the start of a game
-                                    for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
-                                        if (detectedSpheroBall.isBot()) {
-                                            MainActivity.spheroRobots.get(detectedSpheroBall.getIndex()).setLed(0.25f, 0.25f, 0.25f);
-                                        }
-                                    }
-                                    isPlaying = true;
-                                }
-                            } else {
-                                // Once a minute ping the Spheros to keep them awake while idle.
-                                if (idleTime + 60000 < SystemClock.uptimeMillis()) {
-                                    idleTime = SystemClock.uptimeMillis();
-                                    for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
-                                        if (detectedSpheroBall.isBot()) {
-                                            MainActivity.spheroRobots.get(detectedSpheroBall.getIndex()).setLed(0, 0, 0);
-                                        }
-                                    }
-                                }
-                            }
+        // croppedBitmap is reused by the next frame, so load it before handing the frame off.
+        if (!fusedPreprocessing && !rgb565Preprocessing) {
+            detector.loadImage(croppedBitmap, input);
+        }
+        if (frameSlot != null) {
+            frameQueue.publish(frameSlot);
+        } else {
+            detectorPool.submit(poolFrame, timestampMs);
+        }
+    }
+
+    /** Starts the game once the warm up is over, or keeps the idle Spheros awake. */
+    private void checkGameStart() {
+        // Wait for a game to start
+        if (!isPlaying) {
+            if (startGame) {
+                if (warmupTimer <= 0) {
+                    // Set game state to playing
+                    // Light up the AI controlled Spheros to signify the start of a game
+                    for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
+                        if (detectedSpheroBall.isBot()) {
+                            MainActivity.spheroCommands.get(detectedSpheroBall.getIndex()).setLed(0.25f, 0.25f, 0.25f);
+                        }
+                    }
+                    isPlaying = true;
+                }
+            } else {
+                // Once a minute ping the Spheros to keep them awake while idle.
+                if (idleTime + 60000 < SystemClock.uptimeMillis()) {
+                    idleTime = SystemClock.uptimeMillis();
+                    for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
+                        if (detectedSpheroBall.isBot()) {
+                            // Sent even if unchanged, the point is to reach the Sphero.
+                            MainActivity.spheroCommands.get(detectedSpheroBall.getIndex()).forgetLed();
+                            MainActivity.spheroCommands.get(detectedSpheroBall.getIndex()).setLed(0, 0, 0);
                         }
+                    }
+                }
+            }
+        }
+    }
 
-                        // Run Object Detection and track the latency.
-                        final long startTime = SystemClock.uptimeMillis();
-                        tfLiteObjectDetection.recognizeImage(croppedBitmap);
-                        lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-                        trackingOverlay.postInvalidate();
-                        requestRender();
-                        computingDetection = false;
+    /**
+     * Runs the game and the game cleanup when the game is over.
+     *
+     * @param timestampMs The capture time of the frame the detections come from.
+     */
+    private void playGame(final long timestampMs) {
+        final long startTime = SystemClock.uptimeMillis();
+        lastCaptureDelayMs = startTime - timestampMs;
+        lastLookAheadMs = COMPENSATE_LATENCY
+                ? Math.min(MAX_LOOK_AHEAD_MS, lastCaptureDelayMs + lastControlTimeMs + BLUETOOTH_LATENCY_MS)
+                : 0;
+        for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
+            detectedSpheroBall.updateState(timestampMs, lastLookAheadMs);
+        }
 
-                        // Run the game and game cleanup when the game is over.
-                        if (MainActivity.spheroRobots.size() > 0) {
-                            if (isPlaying && !isGameOver()) {
-                                for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
-                                    detectedSpheroBall.play();
-                                }
-                                updateCurrentScore();
-                            } else if (isPlaying && isGameOver()) {
-                                isPlaying = false;
-                                updateLeaderBoard();
-                                gameOver();
-                            }
-                        }
+        if (MainActivity.spheroRobots.size() > 0) {
+            if (isPlaying && !isGameOver()) {
+                playSpheros();
+                updateCurrentScore();
+            } else if (isPlaying && isGameOver()) {
+                isPlaying = false;
+                updateLeaderBoard();
+                gameOver();
+            }
+        }
+        lastControlTimeMs = SystemClock.uptimeMillis() - startTime;
+    }
 
-                    }
-                });
+    /** Plays a game step for every Sphero, with a single commander run for all the bots. */
+    private void playSpheros() {
+        int count = 0;
+        for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
+            if (detectedSpheroBall.prepareCommand() && count < TfLiteCommander.MAX_BATCH_SIZE) {
+                commandRows[count] = detectedSpheroBall;
+                if (commanderBatch.size() <= count) {
+                    commanderBatch.add(null);
+                }
+                commanderBatch.set(count, detectedSpheroBall.getCommanderHistory());
+                commanderAggressiveness[count] = detectedSpheroBall.getAggressiveRating();
+                count++;
+            }
+        }
+
+        final float[][] headingScores =
+                count > 0 ? tfLiteCommander.getCommands(commanderBatch, commanderAggressiveness, count) : null;
+        for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
+            float[] scores = null;
+            for (int row = 0; row < count; row++) {
+                if (commandRows[row] == detectedSpheroBall) {
+                    scores = headingScores[row];
+                    break;
+                }
+            }
+            detectedSpheroBall.play(scores);
+        }
+
+        // Sends the drives that had to wait for their Sphero's minimum interval.
+        for (int i = 0; i < MainActivity.spheroCommands.size(); i++) {
+            MainActivity.spheroCommands.get(i).flush();
+        }
     }
 
     @Override
@@ -303,12 +703,12 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
         for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
             if (!detectedSpheroBall.isBot() && !detectedSpheroBall.username.equals("__reserved__")) {
                 String time = UUID.randomUUID().toString();
-                databaseReferenceLeaderboard.child(game).child(time).child("username").setValue(detectedSpheroBall.username);
-                databaseReferenceLeaderboard.child(game).child(time).child("score").setValue(detectedSpheroBall.score);
+                leaderboardWrites.set(game + "/" + time + "/username", detectedSpheroBall.username);
+                leaderboardWrites.set(game + "/" + time + "/score", detectedSpheroBall.score);
             }
             detectedSpheroBall.score = 0;
-            detectedSpheroBall.databaseReference.child("username").setValue("__reserved__");
-            detectedSpheroBall.databaseReference.child("score").setValue(0);
+            arenaWrites.setAlways(detectedSpheroBall.databasePath + "/username", "__reserved__");
+            arenaWrites.set(detectedSpheroBall.databasePath + "/score", 0);
             detectedSpheroBall.username = "__reserved__";
         }
     }
@@ -316,7 +716,7 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
     private void updateCurrentScore() {
         for (DetectedSpheroBall detectedSpheroBall : detectedSpheroBalls.values()) {
             if (!detectedSpheroBall.isBot()) {
-                detectedSpheroBall.databaseReference.child("score").setValue(detectedSpheroBall.score);
+                arenaWrites.set(detectedSpheroBall.databasePath + "/score", detectedSpheroBall.score);
             }
         }
     }
@@ -348,31 +748,31 @@ public class DetectorActivity extends CameraActivity implements ImageReader.OnIm
             detectedSpheroBall.targetX = -1;
             detectedSpheroBall.targetY = -1;
             if (detectedSpheroBall.isBot()) {
-                MainActivity.spheroRobots.get(detectedSpheroBall.getIndex()).stop();
-                MainActivity.spheroRobots.get(detectedSpheroBall.getIndex()).setLed(0, 0, 0);
+                MainActivity.spheroCommands.get(detectedSpheroBall.getIndex()).stop();
+                MainActivity.spheroCommands.get(detectedSpheroBall.getIndex()).setLed(0, 0, 0);
             } else {
                 detectedSpheroBall.username = "__reserved__";
             }
         }
 
-        databaseColorBlue.child("game_state").setValue(MainActivity.GAME_STATE_OVER);
-        databaseColorBlue.child("heading").setValue(-1);
-        databaseColorBlue.child("score").setValue(0);
+        arenaWrites.setAlways("player_blue/game_state", MainActivity.GAME_STATE_OVER);
+        arenaWrites.set("player_blue/heading", -1);
+        arenaWrites.set("player_blue/score", 0);
 
-        databaseColorGreen.child("game_state").setValue(MainActivity.GAME_STATE_OVER);
-        databaseColorGreen.child("heading").setValue(-1);
-        databaseColorGreen.child("score").setValue(0);
+        arenaWrites.setAlways("player_green/game_state", MainActivity.GAME_STATE_OVER);
+        arenaWrites.set("player_green/heading", -1);
+        arenaWrites.set("player_green/score", 0);
 
-        databaseColorPink.child("game_state").setValue(MainActivity.GAME_STATE_OVER);
-        databaseColorPink.child("heading").setValue(-1);
-        databaseColorPink.child("score").setValue(0);
+        arenaWrites.setAlways("player_pink/game_state", MainActivity.GAME_STATE_OVER);
+        arenaWrites.set("player_pink/heading", -1);
+        arenaWrites.set("player_pink/score", 0);
 
-        databaseColorRed.child("game_state").setValue(MainActivity.GAME_STATE_OVER);
-        databaseColorRed.child("heading").setValue(-1);
-        databaseColorRed.child("score").setValue(0);
+        arenaWrites.setAlways("player_red/game_state", MainActivity.GAME_STATE_OVER);
+        arenaWrites.set("player_red/heading", -1);
+        arenaWrites.set("player_red/score", 0);
 
-        databaseReferenceDevice.child("warmup_timer").setValue(-1);
-        databaseReferenceDevice.child("game_timer").setValue(-1);
-        databaseReferenceDevice.child("start_game").setValue(false);
+        arenaWrites.set("warmup_timer", -1);
+        arenaWrites.set("game_timer", -1);
+        arenaWrites.setAlways("start_game", false);
     }
 }
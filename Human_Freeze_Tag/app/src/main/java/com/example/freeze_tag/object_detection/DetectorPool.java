@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection;
+
+import android.content.res.AssetManager;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.freeze_tag.InterpreterOptions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs detection on several frames at once, with one single-threaded interpreter per worker over
+ * the same mapped model. Each frame is handed to an idle detector, and results are published
+ * strictly in frame order, so the game logic never sees an older frame after a newer one.
+ */
+public class DetectorPool {
+    private static final String TAG = "DETECTOR_POOL";
+    // How long shutdown waits for the running inferences before closing the interpreters.
+    private static final long SHUTDOWN_TIMEOUT_MS = 1000;
+
+    /** Called once per frame, in frame order, right after its results were published. */
+    public interface Listener {
+        void onResultsPublished(long sequence, long inferenceTimeMs, long timestampMs);
+    }
+
+    /** A detector with its own input and outputs, handed out for one frame at a time. */
+    public static class Frame {
+        /** Runs the inference, the caller may use it to load the input. */
+        public final Classifier detector;
+        /** Where the caller writes the model input before submitting the frame. */
+        public final ByteBuffer input;
+        final Classifier.Outputs outputs;
+
+        Frame(Classifier detector) {
+            this.detector = detector;
+            input = detector.createInputBuffer();
+            outputs = detector.createOutputs();
+        }
+    }
+
+    private static class Finished {
+        final Frame frame;
+        final long inferenceTimeMs;
+        // The capture time of the frame, as passed to submit.
+        final long timestampMs;
+        // False if inference failed, there is nothing to publish then.
+        final boolean succeeded;
+
+        Finished(Frame frame, long inferenceTimeMs, long timestampMs, boolean succeeded) {
+            this.frame = frame;
+            this.inferenceTimeMs = inferenceTimeMs;
+            this.timestampMs = timestampMs;
+            this.succeeded = succeeded;
+        }
+    }
+
+    private final Classifier[] detectors;
+    private final ArrayDeque<Frame> idle = new ArrayDeque<>();
+    private final ExecutorService workers;
+
+    // Frames whose inference is done but that wait for an earlier frame, by sequence number.
+    private final Map<Long, Finished> finished = new HashMap<>();
+    private final Object publishLock = new Object();
+    private long nextSequence = 0;
+    private long nextToPublish = 0;
+
+    private volatile Listener listener;
+
+    public DetectorPool(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final int inputSize,
+            final int numDetectors) throws IOException {
+        final MappedByteBuffer model = TfLiteObjectDetection.loadModelFile(assetManager, modelFilename);
+        // The pool gets its parallelism from the workers, each interpreter keeps to one core.
+        final InterpreterOptions options = new InterpreterOptions().setNumThreads(1);
+        detectors = new Classifier[numDetectors];
+        for (int i = 0; i < numDetectors; i++) {
+            detectors[i] = TfLiteObjectDetection.create(model, inputSize, options);
+            idle.add(new Frame(detectors[i]));
+        }
+
+        workers = Executors.newFixedThreadPool(numDetectors, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "DetectorPool-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** See {@link Classifier#setRegionOfInterest(RectF)}, must be set before the first frame. */
+    public void setRegionOfInterest(RectF region) {
+        for (Classifier detector : detectors) {
+            detector.setRegionOfInterest(region);
+        }
+    }
+
+    /**
+     * Returns an idle detector to write the next frame into, or null if all of them are busy and
+     * the frame should be dropped.
+     */
+    public synchronized Frame acquire() {
+        return idle.poll();
+    }
+
+    /**
+     * Runs inference on the input written into an acquired frame on a worker thread.
+     *
+     * @param timestampMs The capture time of the frame, handed back to the listener.
+     * @return The sequence number of the frame.
+     */
+    public synchronized long submit(final Frame frame, final long timestampMs) {
+        final long sequence = nextSequence++;
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long startTime = SystemClock.uptimeMillis();
+                boolean succeeded = false;
+                try {
+                    frame.detector.runInference(frame.input, frame.outputs);
+                    succeeded = true;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Inference failed for frame " + sequence, e);
+                } finally {
+                    // Always finish, or every later frame would wait on this one.
+                    finish(sequence, new Finished(
+                            frame, SystemClock.uptimeMillis() - startTime, timestampMs, succeeded));
+                }
+            }
+        });
+        return sequence;
+    }
+
+    private synchronized void release(final Frame frame) {
+        idle.add(frame);
+    }
+
+    private void finish(final long sequence, final Finished result) {
+        synchronized (publishLock) {
+            finished.put(sequence, result);
+
+            // Publish every frame that is now next in line, on whichever worker completed it.
+            Finished next;
+            while ((next = finished.remove(nextToPublish)) != null) {
+                // A failed frame is skipped, its outputs still hold the previous frame's results.
+                if (next.succeeded) {
+                    next.frame.detector.publishResults(next.frame.outputs);
+                    final Listener l = listener;
+                    if (l != null) {
+                        l.onResultsPublished(nextToPublish, next.inferenceTimeMs, next.timestampMs);
+                    }
+                }
+                nextToPublish++;
+                release(next.frame);
+            }
+        }
+    }
+
+    /** Stops the workers, waiting a little for the running inferences, and closes the detectors. */
+    public void shutdown() {
+        listener = null;
+        workers.shutdownNow();
+        try {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Workers still running, leaving the interpreters open");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (Classifier detector : detectors) {
+            detector.close();
+        }
+    }
+}
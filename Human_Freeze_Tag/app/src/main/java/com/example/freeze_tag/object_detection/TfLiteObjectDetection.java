@@ -23,7 +23,9 @@ import android.graphics.Color;
 import android.graphics.RectF;
 import android.os.Trace;
 
+import com.example.freeze_tag.InterpreterOptions;
 import com.example.freeze_tag.MainActivity;
+import com.example.freeze_tag.object_detection.env.PixelConversion;
 
 import org.tensorflow.lite.Interpreter;
 
@@ -48,15 +50,37 @@ public class TfLiteObjectDetection implements Classifier {
     // Config values.
     private int inputSize = 300;
 
+    /**
+     * Pre-allocated output arrays. The interpreter writes into the same arrays on every run, the
+     * TF Lite 1.9 Java API only accepts outputs shaped like the output tensors.
+     */
+    private static class DetectionOutputs implements Outputs {
+        final float[][][] outputLocations = new float[1][NUM_DETECTIONS][4];
+        final float[][] outputClasses = new float[1][NUM_DETECTIONS];
+        final float[][] outputScores = new float[1][NUM_DETECTIONS];
+        final float[] numDetections = new float[1];
+        final Map<Integer, Object> outputMap = new HashMap<>();
+
+        DetectionOutputs() {
+            outputMap.put(0, outputLocations);
+            outputMap.put(1, outputClasses);
+            outputMap.put(2, outputScores);
+            outputMap.put(3, numDetections);
+        }
+    }
+
     // Pre-allocated buffers.
     private int[] intValues;
-    private float[][][] outputLocations;
-    private float[][] outputClasses;
-    private float[][] outputScores;
-    private float[] numDetections;
+    private byte[] rgbValues;
+    private final Object[] inputArray = new Object[1];
 
-    protected ByteBuffer imgData = null;
+    // The region of the full frame the input covers, detections are mapped back out of it.
+    private float regionLeft = 0.0f;
+    private float regionTop = 0.0f;
+    private float regionWidth = 1.0f;
+    private float regionHeight = 1.0f;
 
+    // Null once closed.
     private Interpreter tfLite;
 
     private boolean foundRed = false;
@@ -70,7 +94,7 @@ public class TfLiteObjectDetection implements Classifier {
     /**
      * Memory-map the model file in Assets.
      */
-    private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+    static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
             throws IOException {
         AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -85,31 +109,49 @@ public class TfLiteObjectDetection implements Classifier {
      *
      * @param assetManager  The asset manager to be used to load assets.
      * @param modelFilename The filepath of the model GraphDef protocol buffer.
+     * @param options       How to build the interpreter, e.g. how many threads to run on.
      */
     public static Classifier create(
             final AssetManager assetManager,
             final String modelFilename,
-            final int inputSize) throws IOException {
+            final int inputSize,
+            final InterpreterOptions options) throws IOException {
+        return create(loadModelFile(assetManager, modelFilename), inputSize, options);
+    }
+
+    /**
+     * Same as {@link #create(AssetManager, String, int, InterpreterOptions)}, for a model that is
+     * already mapped, so several detectors can share one mapping.
+     */
+    static TfLiteObjectDetection create(
+            final MappedByteBuffer model,
+            final int inputSize,
+            final InterpreterOptions options) {
         final TfLiteObjectDetection d = new TfLiteObjectDetection();
 
 
         d.inputSize = inputSize;
 
+        // Pre-allocate buffers.
+        d.intValues = new int[d.inputSize * d.inputSize];
+        d.rgbValues = new byte[d.inputSize * d.inputSize * 3];
+
         try {
-            d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+            // In auto mode the thread count is picked by timing inference on a blank input, which
+            // may happen while this detector runs.
+            final Object[] probeInputs = {d.createInputBuffer()};
+            final DetectionOutputs probeOutputs = new DetectionOutputs();
+            d.tfLite = options.createInterpreter(model,
+                    new InterpreterOptions.Probe() {
+                        @Override
+                        public void run(Interpreter interpreter) {
+                            interpreter.runForMultipleInputsOutputs(
+                                    probeInputs, probeOutputs.outputMap);
+                        }
+                    });
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-
-        // Pre-allocate buffers.
-        d.imgData =
-                ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * 1);
-        d.imgData.order(ByteOrder.nativeOrder());
-        d.intValues = new int[d.inputSize * d.inputSize];
-        d.outputLocations = new float[1][NUM_DETECTIONS][4];
-        d.outputClasses = new float[1][NUM_DETECTIONS];
-        d.outputScores = new float[1][NUM_DETECTIONS];
-        d.numDetections = new float[1];
         return d;
     }
 
@@ -117,51 +159,54 @@ public class TfLiteObjectDetection implements Classifier {
     }
 
     @Override
-    public void recognizeImage(final Bitmap bitmap) {
-        // Log this method so that it can be analyzed with systrace.
-        Trace.beginSection("recognizeImage");
-
+    public void loadImage(final Bitmap bitmap, final ByteBuffer input) {
         Trace.beginSection("preprocessBitmap");
         // Preprocess the image data from 0-255 int to normalized float based
         // on the provided parameters.
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
-        imgData.rewind();
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                int pixelValue = intValues[i * inputSize + j];
-                imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-                imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-                imgData.put((byte) (pixelValue & 0xFF));
-            }
-        }
+        PixelConversion.packARGB8888ToRGB888(intValues, inputSize * inputSize, rgbValues);
+        input.rewind();
+        input.put(rgbValues);
         Trace.endSection(); // preprocessBitmap
+    }
+
+    @Override
+    public ByteBuffer createInputBuffer() {
+        final ByteBuffer input = ByteBuffer.allocateDirect(1 * inputSize * inputSize * 3 * 1);
+        input.order(ByteOrder.nativeOrder());
+        return input;
+    }
+
+    @Override
+    public Outputs createOutputs() {
+        return new DetectionOutputs();
+    }
+
+    @Override
+    public void runInference(final ByteBuffer input, final Outputs outputs) {
+        if (tfLite == null) {
+            throw new IllegalStateException("Detector is closed");
+        }
 
         // Copy the input data into TensorFlow.
         Trace.beginSection("feed");
-        outputLocations = new float[1][NUM_DETECTIONS][4];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
-
-        Object[] inputArray = {imgData};
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(0, outputLocations);
-        outputMap.put(1, outputClasses);
-        outputMap.put(2, outputScores);
-        outputMap.put(3, numDetections);
+        inputArray[0] = input;
 
         // Run the inference call.
         Trace.beginSection("run");
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
+        tfLite.runForMultipleInputsOutputs(inputArray, ((DetectionOutputs) outputs).outputMap);
         Trace.endSection();
 
-        // There's an off by 1 error in the post processing op
-        for (int k = 0; k < NUM_DETECTIONS; ++k) {
-            outputClasses[0][k] += 1;
-        }
+        Trace.endSection(); // feed
+    }
 
-        Trace.endSection();
+    @Override
+    public void publishResults(final Outputs outputs) {
+        final DetectionOutputs o = (DetectionOutputs) outputs;
+        final float[][] locations = o.outputLocations[0];
+        final float[] classes = o.outputClasses[0];
+        final float[] scores = o.outputScores[0];
 
         foundRed = false;
         foundBlue = false;
@@ -170,13 +215,15 @@ public class TfLiteObjectDetection implements Classifier {
 
         int blocksIndex = 0;
         for (int i = 0; i < MainActivity.NUM_RESULTS; i++) {
-            float confidence = outputScores[0][i];
-            int color = getColor((int) outputClasses[0][i]);
+            float confidence = scores[i];
+            // There's an off by 1 error in the post processing op
+            int color = getColor((int) classes[i] + 1);
 
-            float left = outputLocations[0][i][1];
-            float top = outputLocations[0][i][0];
-            float right = outputLocations[0][i][3];
-            float bottom = outputLocations[0][i][2];
+            final float[] box = locations[i];
+            float left = regionLeft + box[1] * regionWidth;
+            float top = regionTop + box[0] * regionHeight;
+            float right = regionLeft + box[3] * regionWidth;
+            float bottom = regionTop + box[2] * regionHeight;
 
             if (color != Color.BLACK && color != Color.WHITE && color != Color.LTGRAY && confidence > MIN_CONFIDENCE) {
                 DetectedSpheroBall detectedSpheroBall = CameraActivity.detectedSpheroBalls.get(color);
@@ -191,6 +238,7 @@ public class TfLiteObjectDetection implements Classifier {
                     detectedSpheroBall.setRecognition(recognition);
                     detectedSpheroBall.setDetectedOnce();
                 }
+                detectedSpheroBall.setMeasured();
             } else if ((color == Color.WHITE || color == Color.LTGRAY) && confidence > MIN_BLOCK_CONFIDENCE && blocksIndex < NUM_DETECTIONS) {
                 if (blocksIndex == CameraActivity.detectedBlocks.size()) {
                     RectF location = new RectF(left, top, right, bottom);
@@ -215,6 +263,14 @@ public class TfLiteObjectDetection implements Classifier {
         }
     }
 
+    @Override
+    public void setRegionOfInterest(final RectF region) {
+        regionLeft = region.left;
+        regionTop = region.top;
+        regionWidth = region.width();
+        regionHeight = region.height();
+    }
+
     private int getColor(int color) {
         if (color == 1 && !foundBlue) {
             foundBlue = true;
@@ -253,6 +309,9 @@ public class TfLiteObjectDetection implements Classifier {
 
     @Override
     public void close() {
-
+        if (tfLite != null) {
+            tfLite.close();
+            tfLite = null;
+        }
     }
 }
\ No newline at end of file
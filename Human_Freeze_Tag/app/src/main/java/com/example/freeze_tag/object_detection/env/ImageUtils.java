@@ -17,6 +17,7 @@ package com.example.freeze_tag.object_detection.env;
 
 import android.graphics.Bitmap;
 import android.graphics.Matrix;
+import android.graphics.RectF;
 import android.os.Environment;
 import android.util.Log;
 
@@ -90,18 +91,46 @@ public class ImageUtils {
     }
   }
 
-  // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
-  // are normalized to eight bits.
-  static final int kMaxChannelValue = 262143;
-
   // Always prefer the native implementation if available.
   private static boolean useNativeConversion = true;
 
+  // Whether the Java fallbacks split frames into row stripes by default, see PixelConversion.
+  private static volatile boolean parallelConversion = false;
+
+  /**
+   * Sets whether conversions that don't choose for themselves run in parallel.
+   */
+  public static void setParallelConversion(final boolean parallel) {
+    parallelConversion = parallel;
+  }
+
+  /**
+   * Sets how many threads, including the caller, a parallel conversion is split across.
+   */
+  public static void setConversionThreads(final int numThreads) {
+    PixelConversion.setNumThreads(numThreads);
+  }
+
   public static void convertYUV420SPToARGB8888(
       byte[] input,
       int width,
       int height,
       int[] output) {
+    convertYUV420SPToARGB8888(input, width, height, output, parallelConversion);
+  }
+
+  /**
+   * Same as {@link #convertYUV420SPToARGB8888(byte[], int, int, int[])}. If {@code parallel} is
+   * set and the Java implementation is used, rows are converted in stripes on the worker pool.
+   * The native implementation always converts the whole frame on the calling thread, as it has no
+   * way to start at a given row.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final boolean parallel) {
     if (useNativeConversion) {
       try {
         ImageUtils.convertYUV420SPToARGB8888(input, output, width, height, false);
@@ -111,50 +140,9 @@ public class ImageUtils {
       }
     }
 
-    // Java implementation of YUV420SP to ARGB8888 converting
-    final int frameSize = width * height;
-    for (int j = 0, yp = 0; j < height; j++) {
-      int uvp = frameSize + (j >> 1) * width;
-      int u = 0;
-      int v = 0;
-
-      for (int i = 0; i < width; i++, yp++) {
-        int y = 0xff & input[yp];
-        if ((i & 1) == 0) {
-          v = 0xff & input[uvp++];
-          u = 0xff & input[uvp++];
-        }
-
-        output[yp] = YUV2RGB(y, u, v);
-      }
-    }
-  }
-
-  private static int YUV2RGB(int y, int u, int v) {
-    // Adjust and check YUV values
-    y = (y - 16) < 0 ? 0 : (y - 16);
-    u -= 128;
-    v -= 128;
-
-    // This is the floating point equivalent. We do the conversion in integer
-    // because some Android devices do not have floating point in hardware.
-    // nR = (int)(1.164 * nY + 2.018 * nU);
-    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
-    // nB = (int)(1.164 * nY + 1.596 * nV);
-    int y1192 = 1192 * y;
-    int r = (y1192 + 1634 * v);
-    int g = (y1192 - 833 * v - 400 * u);
-    int b = (y1192 + 2066 * u);
-
-    // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
-    r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
-    g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
-    b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
-
-    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    PixelConversion.convertYUV420SPToARGB8888(input, width, height, output, parallel);
   }
 
-
   public static void convertYUV420ToARGB8888(
       byte[] yData,
       byte[] uData,
@@ -165,6 +153,26 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
+    convertYUV420ToARGB8888(yData, uData, vData, width, height,
+        yRowStride, uvRowStride, uvPixelStride, out, parallelConversion);
+  }
+
+  /**
+   * Same as {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int, int,
+   * int[])}. If {@code parallel} is set and the Java implementation is used, rows are converted in
+   * stripes on the worker pool.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final boolean parallel) {
     if (useNativeConversion) {
       try {
         convertYUV420ToARGB8888(
@@ -177,22 +185,89 @@ public class ImageUtils {
       }
     }
 
-    int yp = 0;
-    for (int j = 0; j < height; j++) {
-      int pY = yRowStride * j;
-      int pUV = uvRowStride * (j >> 1);
+    PixelConversion.convertYUV420ToARGB8888(yData, uData, vData, width, height,
+        yRowStride, uvRowStride, uvPixelStride, out, parallel);
+  }
 
-      for (int i = 0; i < width; i++) {
-        int uv_offset = pUV + (i >> 1) * uvPixelStride;
+  /**
+   * Converts YUV420SP data to ARGB8888 at (width / decimation) x (height / decimation), see
+   * {@link PixelConversion#decimateYUV420ToARGB8888}. A factor of 2 uses the native half-size
+   * converter when available.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final int decimation) {
+    final boolean parallel = parallelConversion;
+    if (decimation <= 1) {
+      convertYUV420SPToARGB8888(input, width, height, output, parallel);
+      return;
+    }
 
-        out[yp++] = YUV2RGB(
-            0xff & yData[pY + i],
-            0xff & uData[uv_offset],
-            0xff & vData[uv_offset]);
+    if (decimation == 2 && useNativeConversion) {
+      try {
+        ImageUtils.convertYUV420SPToARGB8888(input, output, width, height, true);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        useNativeConversion = false;
       }
     }
+
+    final int frameSize = width * height;
+    PixelConversion.decimateYUV420ToARGB8888(input, input, input, frameSize + 1, frameSize,
+        width, height, width, width, 2, decimation, output, parallel);
   }
 
+  /**
+   * Converts YUV420 data to ARGB8888 at (width / decimation) x (height / decimation), the same way
+   * as {@link #convertYUV420SPToARGB8888(byte[], int, int, int[], int)}. Always uses the
+   * Java implementation, as the native half-size path only understands semi-planar input.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int decimation) {
+    final boolean parallel = parallelConversion;
+    if (decimation <= 1) {
+      convertYUV420ToARGB8888(yData, uData, vData, width, height,
+          yRowStride, uvRowStride, uvPixelStride, out, parallel);
+      return;
+    }
+
+    PixelConversion.decimateYUV420ToARGB8888(yData, uData, vData, 0, 0, width, height,
+        yRowStride, uvRowStride, uvPixelStride, decimation, out, parallel);
+  }
+
+  /**
+   * Converts YUV420SP (NV21) data to RGB565, two bytes per pixel in native byte order, the layout
+   * {@link Bitmap#copyPixelsFromBuffer} expects for a {@link Bitmap.Config#RGB_565} bitmap.
+   * Half the size of an ARGB8888 frame, for devices where memory bandwidth is the bottleneck.
+   */
+  public static void convertYUV420SPToRGB565(
+      final byte[] input,
+      final int width,
+      final int height,
+      final byte[] output) {
+    if (useNativeConversion) {
+      try {
+        ImageUtils.convertYUV420SPToRGB565(input, output, width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        useNativeConversion = false;
+      }
+    }
+
+    PixelConversion.convertYUV420SPToRGB565(input, width, height, output);
+  }
 
   /**
    * Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width and height. The
@@ -338,4 +413,28 @@ public class ImageUtils {
 
     return matrix;
   }
+
+  /**
+   * Same as {@link #getTransformationMatrix(int, int, int, int, int, boolean)}, but only the
+   * region of interest of the transformed frame is scaled to fill the destination, so all of its
+   * pixels are spent on that region. Positions in the destination map back to the full frame with
+   * {@code region.left + x * region.width()} and {@code region.top + y * region.height()}.
+   *
+   * @param region The region to keep, in coordinates normalized to the destination frame the
+   *  transformation would produce without it, e.g. (0, 0.25, 1, 0.75) for the middle half.
+   */
+  public static Matrix getTransformationMatrix(
+      final int srcWidth,
+      final int srcHeight,
+      final int dstWidth,
+      final int dstHeight,
+      final int applyRotation,
+      final boolean maintainAspectRatio,
+      final RectF region) {
+    final Matrix matrix = getTransformationMatrix(
+        srcWidth, srcHeight, dstWidth, dstHeight, applyRotation, maintainAspectRatio);
+    matrix.postTranslate(-region.left * dstWidth, -region.top * dstHeight);
+    matrix.postScale(1.0f / region.width(), 1.0f / region.height());
+    return matrix;
+  }
 }
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.env;
+
+import java.nio.ByteOrder;
+
+/**
+ * The Java YUV to RGB converters, and the other per-pixel work done on camera frames. Plain Java,
+ * so it runs the same on the device and in unit tests. {@link ImageUtils} tries the native
+ * converters first and falls back to these.
+ **/
+public final class PixelConversion {
+
+  // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
+  // are normalized to eight bits.
+  static final int kMaxChannelValue = 262143;
+
+  // Per-channel contributions of every possible Y, U and V value, so the converters do table
+  // lookups instead of multiplies. The sums are exactly the fixed point terms of YUV2RGB.
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      Y_TABLE[i] = 1192 * ((i - 16) < 0 ? 0 : (i - 16));
+      RV_TABLE[i] = 1634 * (i - 128);
+      GV_TABLE[i] = -833 * (i - 128);
+      GU_TABLE[i] = -400 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+  }
+
+  // How many threads a parallel conversion is split across. The worker pool is created on first
+  // use and kept for the life of the process.
+  private static int numThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private static StripeExecutor executor = null;
+
+  private PixelConversion() {
+  }
+
+  /**
+   * Sets how many threads, including the caller, a parallel conversion is split across.
+   */
+  public static synchronized void setNumThreads(final int threads) {
+    if (threads == numThreads) {
+      return;
+    }
+    numThreads = threads;
+    if (executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+
+  private static synchronized StripeExecutor getExecutor() {
+    if (executor == null) {
+      executor = new StripeExecutor(numThreads);
+    }
+    return executor;
+  }
+
+  /**
+   * Converts YUV420SP (NV21) data to ARGB8888. If {@code parallel} is set, rows are converted in
+   * stripes on the worker pool.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final boolean parallel) {
+    if (parallel) {
+      // Stripes start on even rows, so the two rows sharing a chroma row stay together.
+      getExecutor().run(height, 2, new StripeExecutor.StripeTask() {
+        @Override
+        public void run(final int rowStart, final int rowEnd) {
+          convertYUV420SPToARGB8888(input, width, height, output, rowStart, rowEnd);
+        }
+      });
+    } else {
+      convertYUV420SPToARGB8888(input, width, height, output, 0, height);
+    }
+  }
+
+  /**
+   * Converts rows [rowStart, rowEnd) of YUV420SP (NV21) data to ARGB8888. Each pair of pixels in a
+   * row shares one V/U sample, so the chroma contributions are looked up once per pair.
+   */
+  static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final int rowStart,
+      final int rowEnd) {
+    final int frameSize = width * height;
+    for (int j = rowStart, yp = rowStart * width; j < rowEnd; j++) {
+      int uvp = frameSize + (j >> 1) * width;
+
+      int i = 0;
+      for (; i + 1 < width; i += 2) {
+        final int v = 0xff & input[uvp++];
+        final int u = 0xff & input[uvp++];
+        final int r = RV_TABLE[v];
+        final int g = GV_TABLE[v] + GU_TABLE[u];
+        final int b = BU_TABLE[u];
+
+        output[yp] = toARGB8888(Y_TABLE[0xff & input[yp]], r, g, b);
+        yp++;
+        output[yp] = toARGB8888(Y_TABLE[0xff & input[yp]], r, g, b);
+        yp++;
+      }
+
+      // With an odd width the last pixel has a chroma sample of its own.
+      if (i < width) {
+        output[yp] = YUV2RGB(0xff & input[yp], 0xff & input[uvp + 1], 0xff & input[uvp]);
+        yp++;
+      }
+    }
+  }
+
+  static int YUV2RGB(int y, int u, int v) {
+    return toARGB8888(Y_TABLE[y], RV_TABLE[v], GV_TABLE[v] + GU_TABLE[u], BU_TABLE[u]);
+  }
+
+  private static int toARGB8888(final int y1192, int r, int g, int b) {
+    // This is the floating point equivalent. We do the conversion in integer
+    // because some Android devices do not have floating point in hardware.
+    // nR = (int)(1.164 * nY + 2.018 * nU);
+    // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
+    // nB = (int)(1.164 * nY + 1.596 * nV);
+    r += y1192;
+    g += y1192;
+    b += y1192;
+
+    // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
+    r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
+    g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
+    b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
+
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  /**
+   * Converts YUV420 data with arbitrary strides to ARGB8888. If {@code parallel} is set, rows are
+   * converted in stripes on the worker pool.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final boolean parallel) {
+    if (parallel) {
+      getExecutor().run(height, 2, new StripeExecutor.StripeTask() {
+        @Override
+        public void run(final int rowStart, final int rowEnd) {
+          convertYUV420ToARGB8888(yData, uData, vData, width,
+              yRowStride, uvRowStride, uvPixelStride, out, rowStart, rowEnd);
+        }
+      });
+    } else {
+      convertYUV420ToARGB8888(yData, uData, vData, width,
+          yRowStride, uvRowStride, uvPixelStride, out, 0, height);
+    }
+  }
+
+  /**
+   * Converts rows [rowStart, rowEnd) of YUV420 data to ARGB8888. Pixel pairs share one chroma
+   * lookup, and the interleaved layout most cameras deliver (uvPixelStride == 2, NV12/NV21
+   * underneath) gets a loop of its own.
+   */
+  static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int rowStart,
+      final int rowEnd) {
+    int yp = rowStart * width;
+    for (int j = rowStart; j < rowEnd; j++) {
+      int pY = yRowStride * j;
+      int pUV = uvRowStride * (j >> 1);
+
+      int i = 0;
+      if (uvPixelStride == 2) {
+        for (; i + 1 < width; i += 2, pUV += 2) {
+          final int u = 0xff & uData[pUV];
+          final int v = 0xff & vData[pUV];
+          final int r = RV_TABLE[v];
+          final int g = GV_TABLE[v] + GU_TABLE[u];
+          final int b = BU_TABLE[u];
+
+          out[yp++] = toARGB8888(Y_TABLE[0xff & yData[pY++]], r, g, b);
+          out[yp++] = toARGB8888(Y_TABLE[0xff & yData[pY++]], r, g, b);
+        }
+      } else {
+        for (; i + 1 < width; i += 2, pUV += uvPixelStride) {
+          final int u = 0xff & uData[pUV];
+          final int v = 0xff & vData[pUV];
+          final int r = RV_TABLE[v];
+          final int g = GV_TABLE[v] + GU_TABLE[u];
+          final int b = BU_TABLE[u];
+
+          out[yp++] = toARGB8888(Y_TABLE[0xff & yData[pY++]], r, g, b);
+          out[yp++] = toARGB8888(Y_TABLE[0xff & yData[pY++]], r, g, b);
+        }
+      }
+
+      // With an odd width the last pixel has a chroma sample of its own.
+      if (i < width) {
+        out[yp++] = YUV2RGB(0xff & yData[pY], 0xff & uData[pUV], 0xff & vData[pUV]);
+      }
+    }
+  }
+
+  /**
+   * Returns the integer factor a frame can be shrunk by before it is scaled into a square model
+   * input of {@code inputSize} x {@code inputSize}, without going below the input resolution.
+   */
+  public static int getDecimationFactor(
+      final int frameWidth, final int frameHeight, final int inputSize) {
+    return Math.max(1, Math.min(frameWidth, frameHeight) / inputSize);
+  }
+
+  /**
+   * Converts YUV420 data to ARGB8888 at (width / decimation) x (height / decimation). Each output
+   * pixel averages the luminance of the block it covers and takes the chroma sample at the block's
+   * top-left corner. Semi-planar data passes the same array three times, with the offsets of the
+   * first U and V samples.
+   */
+  public static void decimateYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int uOffset,
+      final int vOffset,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int decimation,
+      final int[] out,
+      final boolean parallel) {
+    final int outHeight = height / decimation;
+    if (parallel) {
+      getExecutor().run(outHeight, 1, new StripeExecutor.StripeTask() {
+        @Override
+        public void run(final int rowStart, final int rowEnd) {
+          decimateYUV420ToARGB8888(yData, uData, vData, uOffset, vOffset, width,
+              yRowStride, uvRowStride, uvPixelStride, decimation, out, rowStart, rowEnd);
+        }
+      });
+    } else {
+      decimateYUV420ToARGB8888(yData, uData, vData, uOffset, vOffset, width,
+          yRowStride, uvRowStride, uvPixelStride, decimation, out, 0, outHeight);
+    }
+  }
+
+  static void decimateYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int uOffset,
+      final int vOffset,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int decimation,
+      final int[] out,
+      final int rowStart,
+      final int rowEnd) {
+    final int outWidth = width / decimation;
+    final int blockSize = decimation * decimation;
+    for (int j = rowStart; j < rowEnd; j++) {
+      final int srcRow = j * decimation;
+      final int pUV = uvRowStride * (srcRow >> 1);
+      int op = j * outWidth;
+
+      for (int i = 0; i < outWidth; i++) {
+        final int srcCol = i * decimation;
+        int sum = 0;
+        for (int dy = 0; dy < decimation; dy++) {
+          final int pY = (srcRow + dy) * yRowStride + srcCol;
+          for (int dx = 0; dx < decimation; dx++) {
+            sum += 0xff & yData[pY + dx];
+          }
+        }
+
+        final int uvp = pUV + (srcCol >> 1) * uvPixelStride;
+        out[op++] = YUV2RGB(
+            sum / blockSize, 0xff & uData[uOffset + uvp], 0xff & vData[vOffset + uvp]);
+      }
+    }
+  }
+
+  /**
+   * Converts YUV420SP (NV21) data to RGB565, two bytes per pixel in native byte order, the layout
+   * {@code Bitmap.copyPixelsFromBuffer} expects for an RGB_565 bitmap.
+   */
+  public static void convertYUV420SPToRGB565(
+      final byte[] input,
+      final int width,
+      final int height,
+      final byte[] output) {
+    final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    final int frameSize = width * height;
+    for (int j = 0, yp = 0, op = 0; j < height; j++) {
+      final int uvp = frameSize + (j >> 1) * width;
+
+      for (int i = 0; i < width; i++, yp++, op += 2) {
+        final int uv = uvp + (i & ~1);
+        final int argb = YUV2RGB(0xff & input[yp], 0xff & input[uv + 1], 0xff & input[uv]);
+        final int rgb565 =
+            ((argb >> 8) & 0xf800) | ((argb >> 5) & 0x07e0) | ((argb >> 3) & 0x001f);
+        output[op + (littleEndian ? 0 : 1)] = (byte) rgb565;
+        output[op + (littleEndian ? 1 : 0)] = (byte) (rgb565 >> 8);
+      }
+    }
+  }
+
+  /**
+   * Packs ARGB 8888 pixels into RGB888 bytes, the input layout of the detection model. Filling a
+   * byte array and handing it to a buffer with a single bulk put is much cheaper than three
+   * bounds-checked {@link java.nio.ByteBuffer#put(byte)} calls per pixel.
+   *
+   * @param argb The ARGB 8:8:8:8 pixels.
+   * @param count The number of pixels to pack.
+   * @param rgb A pre-allocated array with room for 3 bytes per pixel.
+   */
+  public static void packARGB8888ToRGB888(final int[] argb, final int count, final byte[] rgb) {
+    for (int i = 0, o = 0; i < count; i++, o += 3) {
+      final int pixel = argb[i];
+      rgb[o] = (byte) (pixel >> 16);
+      rgb[o + 1] = (byte) (pixel >> 8);
+      rgb[o + 2] = (byte) pixel;
+    }
+  }
+}
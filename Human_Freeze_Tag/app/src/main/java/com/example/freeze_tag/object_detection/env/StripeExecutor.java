@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.env;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A small, persistent pool of worker threads that splits a frame into horizontal stripes and
+ * processes them in parallel. The calling thread works on the first stripe itself.
+ **/
+public class StripeExecutor {
+
+  /**
+   * Work done on one stripe of rows.
+   */
+  public interface StripeTask {
+    void run(int rowStart, int rowEnd);
+  }
+
+  private final int numStripes;
+  private final ExecutorService workers;
+
+  public StripeExecutor(final int numThreads) {
+    numStripes = Math.max(1, numThreads);
+    workers = numStripes > 1 ? Executors.newFixedThreadPool(numStripes - 1, new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "StripeExecutor-" + count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    }) : null;
+  }
+
+  /**
+   * Runs {@code task} over rows [0, height) and returns once every stripe is done.
+   *
+   * @param height Number of rows to process.
+   * @param rowAlignment Every stripe but the last starts and ends on a multiple of this, e.g. 2 to
+   *  keep the two luminance rows that share a chroma row together.
+   * @param task The work to do on each stripe.
+   */
+  public void run(final int height, final int rowAlignment, final StripeTask task) {
+    int rowsPerStripe = (height + numStripes - 1) / numStripes;
+    rowsPerStripe = ((rowsPerStripe + rowAlignment - 1) / rowAlignment) * rowAlignment;
+
+    if (workers == null || rowsPerStripe >= height) {
+      task.run(0, height);
+      return;
+    }
+
+    final int stripes = (height + rowsPerStripe - 1) / rowsPerStripe;
+    final CountDownLatch done = new CountDownLatch(stripes - 1);
+    for (int s = 1; s < stripes; s++) {
+      final int rowStart = s * rowsPerStripe;
+      final int rowEnd = Math.min(height, rowStart + rowsPerStripe);
+      workers.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run(rowStart, rowEnd);
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+
+    task.run(0, rowsPerStripe);
+
+    try {
+      done.await();
+    } catch (final InterruptedException e) {
+      // Leave the flag for the caller's loop to see.
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public void shutdown() {
+    if (workers != null) {
+      workers.shutdown();
+    }
+  }
+}
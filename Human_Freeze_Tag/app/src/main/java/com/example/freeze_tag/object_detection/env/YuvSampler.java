@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.env;
+
+import android.graphics.Matrix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Samples a YUV 4:2:0 camera frame straight into the RGB input tensor of a detection model.
+ *
+ * The crop, scale and rotation of a frame-to-crop transform are resolved once into a sampling
+ * map, so every frame is converted, cropped and packed in a single pass instead of going through
+ * a full-frame ARGB array and two bitmaps.
+ **/
+public class YuvSampler {
+
+  private final int frameWidth;
+  private final int frameHeight;
+  private final int dstWidth;
+  private final int dstHeight;
+
+  // Source column and row sampled by each destination pixel, -1 if it falls outside the frame.
+  private final int[] srcX;
+  private final int[] srcY;
+
+  // Plane offsets derived from the sampling map for the strides of the last frame.
+  private final int[] yIndex;
+  private final int[] uvIndex;
+  private int yRowStride = -1;
+  private int uvRowStride = -1;
+  private int uvPixelStride = -1;
+
+  // The packed tensor, filled with plain array stores and copied into the model input at once.
+  private final byte[] rgb;
+
+  /**
+   * @param frameWidth Width of the camera frame.
+   * @param frameHeight Height of the camera frame.
+   * @param dstWidth Width of the model input.
+   * @param dstHeight Height of the model input.
+   * @param frameToCropTransform The transformation applied to the frame to produce the model input,
+   *  as returned by {@link ImageUtils#getTransformationMatrix}.
+   */
+  public YuvSampler(
+      final int frameWidth,
+      final int frameHeight,
+      final int dstWidth,
+      final int dstHeight,
+      final Matrix frameToCropTransform) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+
+    final int size = dstWidth * dstHeight;
+    srcX = new int[size];
+    srcY = new int[size];
+    yIndex = new int[size];
+    uvIndex = new int[size];
+    rgb = new byte[size * 3];
+
+    final Matrix cropToFrameTransform = new Matrix();
+    frameToCropTransform.invert(cropToFrameTransform);
+
+    // Map the center of every destination pixel back into the frame. Canvas.drawBitmap without a
+    // Paint samples the nearest source pixel, so this reproduces the bitmap path exactly.
+    final float[] point = new float[2];
+    for (int j = 0, p = 0; j < dstHeight; j++) {
+      for (int i = 0; i < dstWidth; i++, p++) {
+        point[0] = i + 0.5f;
+        point[1] = j + 0.5f;
+        cropToFrameTransform.mapPoints(point);
+        final int x = (int) Math.floor(point[0]);
+        final int y = (int) Math.floor(point[1]);
+
+        if (x < 0 || y < 0 || x >= frameWidth || y >= frameHeight) {
+          srcX[p] = -1;
+          srcY[p] = -1;
+        } else {
+          srcX[p] = x;
+          srcY[p] = y;
+        }
+      }
+    }
+  }
+
+  /**
+   * Converts, crops and packs one frame into an RGB888 tensor. Pixels that fall outside the frame
+   * are written as black, matching an untouched area of the cropped bitmap.
+   *
+   * @param yData The luminance plane.
+   * @param uData The plane holding U samples, starting at {@code uOffset}.
+   * @param vData The plane holding V samples, starting at {@code vOffset}.
+   * @param uOffset Offset of the first U sample in {@code uData}.
+   * @param vOffset Offset of the first V sample in {@code vData}.
+   * @param yRowStride Row stride of the luminance plane.
+   * @param uvRowStride Row stride of the chroma planes.
+   * @param uvPixelStride Pixel stride of the chroma planes.
+   * @param out The model input buffer, with room for 3 bytes per destination pixel.
+   */
+  public void sample(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int uOffset,
+      final int vOffset,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final ByteBuffer out) {
+    updateIndices(yRowStride, uvRowStride, uvPixelStride);
+
+    final byte[] rgb = this.rgb;
+    final int size = dstWidth * dstHeight;
+    for (int p = 0, o = 0; p < size; p++, o += 3) {
+      final int yp = yIndex[p];
+      if (yp < 0) {
+        rgb[o] = 0;
+        rgb[o + 1] = 0;
+        rgb[o + 2] = 0;
+        continue;
+      }
+
+      final int uvp = uvIndex[p];
+      final int pixelValue = PixelConversion.YUV2RGB(
+          0xff & yData[yp],
+          0xff & uData[uOffset + uvp],
+          0xff & vData[vOffset + uvp]);
+      rgb[o] = (byte) (pixelValue >> 16);
+      rgb[o + 1] = (byte) (pixelValue >> 8);
+      rgb[o + 2] = (byte) pixelValue;
+    }
+    out.rewind();
+    out.put(rgb);
+  }
+
+  /**
+   * Same as {@link #sample(byte[], byte[], byte[], int, int, int, int, int, ByteBuffer)}, reading
+   * straight from the plane buffers of a Camera2 {@link android.media.Image}, so the planes never
+   * have to be copied out. The image must stay open until this returns.
+   */
+  public void sample(
+      final ByteBuffer yPlane,
+      final ByteBuffer uPlane,
+      final ByteBuffer vPlane,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final ByteBuffer out) {
+    updateIndices(yRowStride, uvRowStride, uvPixelStride);
+
+    final byte[] rgb = this.rgb;
+    final int size = dstWidth * dstHeight;
+    for (int p = 0, o = 0; p < size; p++, o += 3) {
+      final int yp = yIndex[p];
+      if (yp < 0) {
+        rgb[o] = 0;
+        rgb[o + 1] = 0;
+        rgb[o + 2] = 0;
+        continue;
+      }
+
+      final int uvp = uvIndex[p];
+      final int pixelValue = PixelConversion.YUV2RGB(
+          0xff & yPlane.get(yp),
+          0xff & uPlane.get(uvp),
+          0xff & vPlane.get(uvp));
+      rgb[o] = (byte) (pixelValue >> 16);
+      rgb[o + 1] = (byte) (pixelValue >> 8);
+      rgb[o + 2] = (byte) pixelValue;
+    }
+    out.rewind();
+    out.put(rgb);
+  }
+
+  /**
+   * Crops and packs a frame already converted to RGB565, as produced by
+   * {@link ImageUtils#convertYUV420SPToRGB565}, expanding each pixel to RGB888 the same way a
+   * bitmap does when it is drawn.
+   *
+   * @param rgb565 The frame, two bytes per pixel in native byte order.
+   * @param out The model input buffer, with room for 3 bytes per destination pixel.
+   */
+  public void sampleRGB565(final byte[] rgb565, final ByteBuffer out) {
+    final int lo = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1;
+    final int hi = 1 - lo;
+
+    final byte[] rgb = this.rgb;
+    final int size = dstWidth * dstHeight;
+    for (int p = 0, o = 0; p < size; p++, o += 3) {
+      final int x = srcX[p];
+      if (x < 0) {
+        rgb[o] = 0;
+        rgb[o + 1] = 0;
+        rgb[o + 2] = 0;
+        continue;
+      }
+
+      final int index = (srcY[p] * frameWidth + x) * 2;
+      final int pixel = ((rgb565[index + hi] & 0xff) << 8) | (rgb565[index + lo] & 0xff);
+      final int r = pixel >> 11;
+      final int g = (pixel >> 5) & 0x3f;
+      final int b = pixel & 0x1f;
+      rgb[o] = (byte) ((r << 3) | (r >> 2));
+      rgb[o + 1] = (byte) ((g << 2) | (g >> 4));
+      rgb[o + 2] = (byte) ((b << 3) | (b >> 2));
+    }
+    out.rewind();
+    out.put(rgb);
+  }
+
+  private void updateIndices(final int yRowStride, final int uvRowStride, final int uvPixelStride) {
+    if (yRowStride == this.yRowStride
+        && uvRowStride == this.uvRowStride
+        && uvPixelStride == this.uvPixelStride) {
+      return;
+    }
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+
+    for (int p = 0; p < srcX.length; p++) {
+      final int x = srcX[p];
+      final int y = srcY[p];
+      if (x < 0) {
+        yIndex[p] = -1;
+        uvIndex[p] = -1;
+      } else {
+        yIndex[p] = y * yRowStride + x;
+        uvIndex[p] = (y >> 1) * uvRowStride + (x >> 1) * uvPixelStride;
+      }
+    }
+  }
+}
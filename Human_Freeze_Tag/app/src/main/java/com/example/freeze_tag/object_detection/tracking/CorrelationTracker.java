@@ -0,0 +1,158 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.tracking;
+
+/**
+ * Follows one object across camera frames between detector runs by searching the luminance
+ * plane for the patch it was last seen as. Candidates in a small window around the last position
+ * are scored by normalized cross-correlation, which tolerates the changes in brightness of a
+ * Sphero's LED.
+ *
+ * All positions are in pixels of the luminance plane.
+ */
+public class CorrelationTracker {
+    private static final int MIN_TEMPLATE_SIZE = 8;
+    private static final int MAX_TEMPLATE_SIZE = 32;
+
+    private final int searchRadius;
+
+    // Template, stored row by row, with its precomputed statistics.
+    private final int[] template = new int[MAX_TEMPLATE_SIZE * MAX_TEMPLATE_SIZE];
+    private int templateSize;
+    private long templateSum;
+    private double templateNorm;
+
+    // Top left corner of the template in the last frame.
+    private int x;
+    private int y;
+    private boolean valid = false;
+    private float correlation = 0.0f;
+
+    /**
+     * @param searchRadius How far in pixels the object may move between two frames.
+     */
+    public CorrelationTracker(int searchRadius) {
+        this.searchRadius = searchRadius;
+    }
+
+    /**
+     * Starts tracking the patch of {@code size} pixels centered at ({@code centerX},
+     * {@code centerY}), e.g. after the detector found the object there.
+     */
+    public void setTemplate(
+            byte[] luminance, int width, int height, int stride,
+            float centerX, float centerY, int size) {
+        templateSize = Math.max(MIN_TEMPLATE_SIZE, Math.min(MAX_TEMPLATE_SIZE, size));
+        x = Math.round(centerX - templateSize / 2.0f);
+        y = Math.round(centerY - templateSize / 2.0f);
+        if (x < 0 || y < 0 || x + templateSize > width || y + templateSize > height) {
+            valid = false;
+            return;
+        }
+
+        long sum = 0;
+        long sumSquares = 0;
+        for (int j = 0, t = 0; j < templateSize; j++) {
+            final int row = (y + j) * stride + x;
+            for (int i = 0; i < templateSize; i++, t++) {
+                final int value = luminance[row + i] & 0xff;
+                template[t] = value;
+                sum += value;
+                sumSquares += value * value;
+            }
+        }
+
+        final int n = templateSize * templateSize;
+        templateSum = sum;
+        templateNorm = Math.sqrt(sumSquares - (double) sum * sum / n);
+        // A flat patch correlates with anything, it can't be tracked.
+        valid = templateNorm > 0;
+        correlation = valid ? 1.0f : 0.0f;
+    }
+
+    /**
+     * Finds the template in a new frame, within the search radius of its last position, and moves
+     * to the best match. A low correlation means the object was lost, e.g. it was occluded.
+     *
+     * @return The correlation of the best match, from -1 to 1.
+     */
+    public float track(byte[] luminance, int width, int height, int stride) {
+        if (!valid) {
+            return 0.0f;
+        }
+
+        final int size = templateSize;
+        final int n = size * size;
+        final int minX = Math.max(0, x - searchRadius);
+        final int minY = Math.max(0, y - searchRadius);
+        final int maxX = Math.min(width - size, x + searchRadius);
+        final int maxY = Math.min(height - size, y + searchRadius);
+
+        double best = -1.0;
+        int bestX = x;
+        int bestY = y;
+        for (int cy = minY; cy <= maxY; cy++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                long sum = 0;
+                long sumSquares = 0;
+                long sumProducts = 0;
+                for (int j = 0, t = 0; j < size; j++) {
+                    final int row = (cy + j) * stride + cx;
+                    for (int i = 0; i < size; i++, t++) {
+                        final int value = luminance[row + i] & 0xff;
+                        sum += value;
+                        sumSquares += value * value;
+                        sumProducts += value * template[t];
+                    }
+                }
+
+                final double norm = Math.sqrt(sumSquares - (double) sum * sum / n);
+                if (norm == 0) {
+                    continue;
+                }
+                final double score =
+                        (sumProducts - (double) sum * templateSum / n) / (norm * templateNorm);
+                if (score > best) {
+                    best = score;
+                    bestX = cx;
+                    bestY = cy;
+                }
+            }
+        }
+
+        x = bestX;
+        y = bestY;
+        correlation = (float) best;
+        return correlation;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    public float getCorrelation() {
+        return correlation;
+    }
+
+    public float getCenterX() {
+        return x + templateSize / 2.0f;
+    }
+
+    public float getCenterY() {
+        return y + templateSize / 2.0f;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.tracking;
+
+/**
+ * A constant velocity Kalman filter over a 2D position. Smooths out the jitter of detected boxes,
+ * estimates the velocity, and predicts the position at any time.
+ *
+ * The two axes are independent, so each keeps its own position, velocity and 2x2 covariance in
+ * plain fields and an update never allocates. Times are in milliseconds, positions in whatever
+ * unit the measurements use.
+ */
+public class KalmanFilter2D {
+
+    /** Position, velocity per second and covariance of one axis. */
+    private static class Axis {
+        double position;
+        double velocity;
+        double p00;
+        double p01;
+        double p11;
+
+        void reset(double measurement, double measurementVariance, double velocityVariance) {
+            position = measurement;
+            velocity = 0;
+            p00 = measurementVariance;
+            p01 = 0;
+            p11 = velocityVariance;
+        }
+
+        void predict(double dt, double accelerationVariance) {
+            position += velocity * dt;
+
+            // P = F P F' + Q, for F = [1 dt; 0 1] and white noise acceleration.
+            final double dt2 = dt * dt;
+            p00 += dt * (2 * p01 + dt * p11) + accelerationVariance * dt2 * dt2 / 4;
+            p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+            p11 += accelerationVariance * dt2;
+        }
+
+        void correct(double measurement, double measurementVariance) {
+            final double s = p00 + measurementVariance;
+            final double k0 = p00 / s;
+            final double k1 = p01 / s;
+            final double innovation = measurement - position;
+
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+
+        double positionAt(double dt) {
+            return position + velocity * dt;
+        }
+    }
+
+    private final Axis x = new Axis();
+    private final Axis y = new Axis();
+
+    private final double measurementVariance;
+    private final double accelerationVariance;
+    private final double maxJump;
+    private final long maxGapMs;
+
+    private boolean initialized = false;
+    private long timestampMs;
+
+    /**
+     * @param measurementNoise Standard deviation of a measured position.
+     * @param accelerationNoise Standard deviation of the acceleration per second squared, how
+     *  quickly the velocity is allowed to change.
+     * @param maxJump A measurement further than this from the prediction restarts the filter, e.g.
+     *  when the object was lost and found somewhere else.
+     * @param maxGapMs A measurement more than this after the last one restarts the filter.
+     */
+    public KalmanFilter2D(
+            double measurementNoise, double accelerationNoise, double maxJump, long maxGapMs) {
+        measurementVariance = measurementNoise * measurementNoise;
+        accelerationVariance = accelerationNoise * accelerationNoise;
+        this.maxJump = maxJump;
+        this.maxGapMs = maxGapMs;
+    }
+
+    /** Folds in a measured position taken at {@code timestampMs}. */
+    public void update(double measuredX, double measuredY, long timestampMs) {
+        final long gapMs = timestampMs - this.timestampMs;
+        if (initialized && gapMs < 0) {
+            // Older than the state, it has nothing to add.
+            return;
+        }
+
+        final double dt = gapMs / 1000.0;
+        if (!initialized || gapMs > maxGapMs
+                || Math.abs(measuredX - x.positionAt(dt)) > maxJump
+                || Math.abs(measuredY - y.positionAt(dt)) > maxJump) {
+            // Nothing known about the velocity yet, start it at zero with a loose variance.
+            final double velocityVariance = maxJump * maxJump;
+            x.reset(measuredX, measurementVariance, velocityVariance);
+            y.reset(measuredY, measurementVariance, velocityVariance);
+            initialized = true;
+        } else {
+            x.predict(dt, accelerationVariance);
+            y.predict(dt, accelerationVariance);
+            x.correct(measuredX, measurementVariance);
+            y.correct(measuredY, measurementVariance);
+        }
+        this.timestampMs = timestampMs;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public void reset() {
+        initialized = false;
+    }
+
+    /** The time of the last measurement. */
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    /** The position predicted for {@code timestampMs}, which may be before or after the state. */
+    public float getX(long timestampMs) {
+        return (float) x.positionAt((timestampMs - this.timestampMs) / 1000.0);
+    }
+
+    public float getY(long timestampMs) {
+        return (float) y.positionAt((timestampMs - this.timestampMs) / 1000.0);
+    }
+
+    /** Velocity along x, per second. */
+    public float getVelocityX() {
+        return (float) x.velocity;
+    }
+
+    /** Velocity along y, per second. */
+    public float getVelocityY() {
+        return (float) y.velocity;
+    }
+
+    /** Variance of the position along x. */
+    public float getVarianceX() {
+        return (float) x.p00;
+    }
+
+    /** Variance of the position along y. */
+    public float getVarianceY() {
+        return (float) y.p00;
+    }
+}
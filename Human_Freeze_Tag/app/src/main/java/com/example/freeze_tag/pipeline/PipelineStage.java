@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.pipeline;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * A pipeline stage with its own thread. It takes slots from its input queue, processes them and,
+ * unless it is the last stage, publishes the result into its output queue.
+ */
+public class PipelineStage<I extends SlotQueue.Slot, O extends SlotQueue.Slot> {
+    private static final String TAG = "PIPELINE";
+
+    /** The work done on each slot. */
+    public interface Worker<I, O> {
+        /**
+         * @param input The slot taken from the input queue.
+         * @param output A claimed slot of the output queue, null for the last stage.
+         * @return True to publish {@code output}, false to drop it.
+         */
+        boolean process(I input, O output);
+    }
+
+    private final SlotQueue<I> input;
+    private final SlotQueue<O> output;
+    private final Thread thread;
+
+    // Time spent in the worker on the last slot.
+    private volatile long lastProcessingTimeMs;
+
+    public PipelineStage(
+            final String name,
+            final SlotQueue<I> input,
+            final SlotQueue<O> output,
+            final Worker<I, O> worker) {
+        this.input = input;
+        this.output = output;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    loop(worker);
+                } catch (InterruptedException e) {
+                    Log.i(TAG, "Stage interrupted: " + e);
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+    }
+
+    private void loop(Worker<I, O> worker) throws InterruptedException {
+        while (true) {
+            final I in = input.take();
+            if (in == null) {
+                return;
+            }
+
+            O out = null;
+            if (output != null) {
+                out = output.claim();
+                if (out == null) {
+                    return;
+                }
+                out.sequence = in.sequence;
+                out.timestampMs = in.timestampMs;
+            }
+
+            final long startTime = SystemClock.uptimeMillis();
+            boolean publish = false;
+            try {
+                publish = worker.process(in, out);
+            } finally {
+                // Hand both slots back even if the worker threw, so neither queue runs dry.
+                input.release(in);
+                if (out != null) {
+                    if (publish) {
+                        output.publish(out);
+                    } else {
+                        output.cancel(out);
+                    }
+                }
+            }
+            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+        }
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /** Closes the input queue, which stops the stage once its current slot is done. */
+    public void stop() {
+        input.close();
+    }
+
+    public long getLastProcessingTimeMs() {
+        return lastProcessingTimeMs;
+    }
+}
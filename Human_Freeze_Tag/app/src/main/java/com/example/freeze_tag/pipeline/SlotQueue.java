@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.pipeline;
+
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue between one producing and one consuming pipeline stage. All slots are allocated
+ * up front and handed back and forth, so passing a frame along never allocates.
+ *
+ * The producer claims a free slot, fills it and publishes it. The consumer takes the oldest
+ * published slot and releases it once it is done with it, at which point it can be claimed again.
+ *
+ * Both sides go through one lock and wait on it, it isn't a lock-free ring: with
+ * {@link DropPolicy#LATEST_WINS} the producer recycles a slot the consumer hasn't taken yet, which
+ * needs both sides to agree. Each side takes the lock a few times per frame, so it is rarely
+ * contended.
+ */
+public class SlotQueue<T extends SlotQueue.Slot> {
+
+    /** What the producer does when every slot is in use. */
+    public enum DropPolicy {
+        /** Recycle the oldest slot that is waiting to be consumed, so the consumer sees fresh data. */
+        LATEST_WINS,
+        /** Wait until the consumer releases a slot. */
+        BLOCK
+    }
+
+    /** Base class of the data passed between stages. */
+    public static class Slot {
+        /** The camera frame this slot belongs to, carried from stage to stage. */
+        public long sequence;
+        /** When the frame was captured, in {@link android.os.SystemClock#uptimeMillis()}. */
+        public long timestampMs;
+    }
+
+    /** Creates the slots of a queue. */
+    public interface Factory<T> {
+        T create();
+    }
+
+    private final String name;
+    private final DropPolicy dropPolicy;
+    private final ArrayDeque<T> free;
+    private final ArrayDeque<T> ready;
+    private boolean closed = false;
+
+    // Metrics, read by the debug overlay.
+    private long published = 0;
+    private long dropped = 0;
+    private int maxDepth = 0;
+
+    /**
+     * @param name Shown with the metrics of the queue.
+     * @param capacity Number of slots. With {@link DropPolicy#LATEST_WINS}, the producer and the
+     *  consumer each may hold one, so at least 3 are needed for one to be waiting.
+     * @param dropPolicy What the producer does when every slot is in use.
+     * @param factory Creates the slots.
+     */
+    public SlotQueue(String name, int capacity, DropPolicy dropPolicy, Factory<T> factory) {
+        if (dropPolicy == DropPolicy.LATEST_WINS && capacity < 3) {
+            throw new IllegalArgumentException("LATEST_WINS needs at least 3 slots: " + name);
+        }
+        this.name = name;
+        this.dropPolicy = dropPolicy;
+        free = new ArrayDeque<>(capacity);
+        ready = new ArrayDeque<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(factory.create());
+        }
+    }
+
+    /**
+     * Claims a slot for the producer to fill, dropping or waiting according to the drop policy.
+     *
+     * @return The slot, or null once the queue was closed.
+     */
+    public synchronized T claim() throws InterruptedException {
+        while (free.isEmpty() && !closed) {
+            if (dropPolicy == DropPolicy.LATEST_WINS && !ready.isEmpty()) {
+                free.add(ready.poll());
+                dropped++;
+            } else {
+                wait();
+            }
+        }
+        return closed ? null : free.poll();
+    }
+
+    /** Hands a claimed slot to the consumer. */
+    public synchronized void publish(T slot) {
+        ready.add(slot);
+        published++;
+        maxDepth = Math.max(maxDepth, ready.size());
+        notifyAll();
+    }
+
+    /** Returns a claimed slot without publishing it, e.g. when the producer drops the frame. */
+    public synchronized void cancel(T slot) {
+        free.add(slot);
+        dropped++;
+        notifyAll();
+    }
+
+    /**
+     * Takes the oldest published slot, waiting for one if needed.
+     *
+     * @return The slot, or null once the queue was closed.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (ready.isEmpty() && !closed) {
+            wait();
+        }
+        return closed ? null : ready.poll();
+    }
+
+    /** Gives a slot returned by {@link #take()} back to the producer. */
+    public synchronized void release(T slot) {
+        free.add(slot);
+        notifyAll();
+    }
+
+    /** Wakes up and stops both sides. */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /** Slots published but not taken yet. */
+    public synchronized int getDepth() {
+        return ready.size();
+    }
+
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized String getStatString() {
+        return name + ": depth " + ready.size() + "/" + maxDepth
+                + ", published " + published + ", dropped " + dropped;
+    }
+}
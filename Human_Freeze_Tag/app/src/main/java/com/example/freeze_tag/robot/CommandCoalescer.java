@@ -0,0 +1,331 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.ConvenienceRobot;
+import com.orbotix.macro.MacroObject;
+
+/**
+ * Sits between the game and one Sphero, and keeps the Bluetooth link to it from filling up with
+ * commands. The game may ask for a drive every frame, but:
+ *
+ * - A drive with about the same heading and speed as the last one sent is dropped, unless the
+ *   last one is older than the refresh period.
+ * - Drives are sent at most once per minimum interval. One asked for sooner waits, and is
+ *   replaced by any newer drive, so only the freshest one is ever sent.
+ * - A {@link Trajectory} is only uploaded when it strays from the one running on the Sphero, or
+ *   that one is about to end.
+ * - {@link #stop()} goes out right away and cancels a waiting drive or running trajectory, e.g.
+ *   when a bot freezes.
+ * - An LED color is only sent when it changes.
+ * - An {@link LedEffect} is uploaded once and left running on the Sphero, until it ends or another
+ *   LED color or effect takes over.
+ *
+ * All methods are thread safe.
+ */
+public class CommandCoalescer {
+
+    /** What the commands are sent to. */
+    public interface Robot {
+        void drive(float heading, float speed);
+        void stop();
+        void setLed(float red, float green, float blue);
+        void playMacro(MacroObject macro);
+        void abortMacro();
+    }
+
+    /** Sends to a connected Sphero. */
+    public static Robot wrap(final ConvenienceRobot robot) {
+        return new Robot() {
+            @Override
+            public void drive(float heading, float speed) {
+                robot.drive(heading, speed);
+            }
+
+            @Override
+            public void stop() {
+                robot.stop();
+            }
+
+            @Override
+            public void setLed(float red, float green, float blue) {
+                robot.setLed(red, green, blue);
+            }
+
+            @Override
+            public void playMacro(MacroObject macro) {
+                // Effect macros are shared between the robots.
+                synchronized (macro) {
+                    macro.setRobot(robot.getRobot());
+                    macro.playMacro();
+                }
+            }
+
+            @Override
+            public void abortMacro() {
+                robot.abortMacro();
+            }
+        };
+    }
+
+    private final String name;
+    private final Robot robot;
+    private final Clock clock;
+    private final long minIntervalMs;
+    private final float headingTolerance;
+    private final long refreshMs;
+
+    // Last drive sent, if the Sphero hasn't been stopped since.
+    private boolean driving = false;
+    private float sentHeading;
+    private float sentSpeed;
+    private long sentTimeMs;
+    private long lastDriveTimeMs = Long.MIN_VALUE / 2;
+
+    private boolean hasPending = false;
+    private float pendingHeading;
+    private float pendingSpeed;
+
+    // Last LED color sent, NaN when unknown.
+    private float red = Float.NaN;
+    private float green = Float.NaN;
+    private float blue = Float.NaN;
+
+    // Trajectory running on the Sphero, null when none.
+    private Trajectory trajectory = null;
+    private long trajectoryStartMs;
+
+    // Effect running on the Sphero, null when none.
+    private LedEffect effect = null;
+    private long effectStartMs;
+
+    private long sent = 0;
+    private long suppressed = 0;
+    private long preempted = 0;
+
+    /**
+     * @param name Used in the stats.
+     * @param clock Times the drives, trajectories and effects.
+     * @param minIntervalMs The least time between two drives.
+     * @param headingTolerance Drives with headings this close, in degrees, are the same.
+     * @param refreshMs The same drive is sent again after this long.
+     */
+    public CommandCoalescer(String name, Robot robot, Clock clock, long minIntervalMs,
+                            float headingTolerance, long refreshMs) {
+        this.name = name;
+        this.robot = robot;
+        this.clock = clock;
+        this.minIntervalMs = minIntervalMs;
+        this.headingTolerance = headingTolerance;
+        this.refreshMs = refreshMs;
+    }
+
+    public void drive(float heading, float speed) {
+        drive(heading, speed, clock.uptimeMillis());
+    }
+
+    synchronized void drive(float heading, float speed, long nowMs) {
+        if (driving && speed == sentSpeed && headingDistance(heading, sentHeading) <= headingTolerance
+                && nowMs - sentTimeMs < refreshMs) {
+            // Already on its way there, a waiting drive is out of date.
+            if (hasPending) {
+                hasPending = false;
+                suppressed++;
+            }
+            suppressed++;
+            return;
+        }
+
+        if (hasPending) {
+            // Replaced before it was sent.
+            suppressed++;
+        }
+        hasPending = true;
+        pendingHeading = heading;
+        pendingSpeed = speed;
+        flush(nowMs);
+    }
+
+    /** Sends the waiting drive if the minimum interval is over, call it regularly. */
+    public void flush() {
+        flush(clock.uptimeMillis());
+    }
+
+    synchronized void flush(long nowMs) {
+        if (!hasPending || nowMs - lastDriveTimeMs < minIntervalMs) {
+            return;
+        }
+        hasPending = false;
+        stopTrajectory();
+        robot.drive(pendingHeading, pendingSpeed);
+        sent++;
+        driving = true;
+        sentHeading = pendingHeading;
+        sentSpeed = pendingSpeed;
+        sentTimeMs = nowMs;
+        lastDriveTimeMs = nowMs;
+    }
+
+    public void drive(Trajectory trajectory) {
+        drive(trajectory, clock.uptimeMillis());
+    }
+
+    /**
+     * Drives along {@code trajectory}, the way {@link #drive(float, float)} drives a single
+     * heading. It's dropped while the running one is within the heading tolerance of its start
+     * and more than a step away from its end, or sooner than the minimum interval after it.
+     */
+    synchronized void drive(Trajectory trajectory, long nowMs) {
+        final Trajectory running = this.trajectory;
+        if (running != null) {
+            final long elapsedMs = nowMs - trajectoryStartMs;
+            final boolean onPlan = trajectory.getSpeed() == running.getSpeed()
+                    && headingDistance(trajectory.getHeadingAt(0), running.getHeadingAt(elapsedMs))
+                    <= headingTolerance;
+            final boolean ending = elapsedMs >= running.getDurationMs() - running.getStepMs();
+            if ((onPlan && !ending) || elapsedMs < minIntervalMs) {
+                suppressed++;
+                return;
+            }
+        }
+
+        if (hasPending) {
+            hasPending = false;
+            suppressed++;
+        }
+        robot.playMacro(trajectory.toMacro());
+        sent++;
+        // Replaces whatever macro was running.
+        effect = null;
+        driving = false;
+        this.trajectory = trajectory;
+        trajectoryStartMs = nowMs;
+    }
+
+    // Called with the lock held.
+    private void stopTrajectory() {
+        if (trajectory == null) {
+            return;
+        }
+        robot.abortMacro();
+        sent++;
+        trajectory = null;
+    }
+
+    /** Stops the Sphero right away, dropping any waiting drive or running trajectory. */
+    public synchronized void stop() {
+        if (hasPending) {
+            hasPending = false;
+            preempted++;
+        }
+        if (trajectory != null) {
+            trajectory = null;
+            preempted++;
+            robot.abortMacro();
+            sent++;
+        }
+        robot.stop();
+        sent++;
+        driving = false;
+    }
+
+    /** Sets the LED color, ending any running effect. */
+    public synchronized void setLed(float red, float green, float blue) {
+        stopEffect();
+        if (red == this.red && green == this.green && blue == this.blue) {
+            suppressed++;
+            return;
+        }
+        robot.setLed(red, green, blue);
+        sent++;
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+    }
+
+    /** Plays a macro, which may change the LED and replaces any running effect. */
+    public synchronized void playMacro(MacroObject macro) {
+        robot.playMacro(macro);
+        sent++;
+        forgetLed();
+        effect = null;
+        trajectory = null;
+    }
+
+    public void startEffect(LedEffect effect) {
+        startEffect(effect, clock.uptimeMillis());
+    }
+
+    /**
+     * Plays {@code effect}, unless it's still running from an earlier call. Call it as often as
+     * wanted, e.g. every frame while a bot is frozen.
+     */
+    synchronized void startEffect(LedEffect effect, long nowMs) {
+        if (effect == this.effect && nowMs - effectStartMs < effect.getDurationMs()) {
+            suppressed++;
+            return;
+        }
+        robot.playMacro(effect.getMacro());
+        sent++;
+        forgetLed();
+        trajectory = null;
+        this.effect = effect;
+        effectStartMs = nowMs;
+    }
+
+    /** Aborts the running effect, if any. The LED is left as the effect had it. */
+    public synchronized void stopEffect() {
+        if (effect == null) {
+            return;
+        }
+        robot.abortMacro();
+        sent++;
+        effect = null;
+    }
+
+    public synchronized LedEffect getEffect() {
+        return effect;
+    }
+
+    /** Call after changing the LED some other way. */
+    public synchronized void forgetLed() {
+        red = Float.NaN;
+        green = Float.NaN;
+        blue = Float.NaN;
+    }
+
+    private static float headingDistance(float a, float b) {
+        final float distance = Math.abs(a - b) % 360;
+        return Math.min(distance, 360 - distance);
+    }
+
+    public synchronized long getSent() {
+        return sent;
+    }
+
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    public synchronized long getPreempted() {
+        return preempted;
+    }
+
+    public synchronized String getStatString() {
+        return name + ": sent " + sent + ", suppressed " + suppressed + ", preempted " + preempted;
+    }
+}
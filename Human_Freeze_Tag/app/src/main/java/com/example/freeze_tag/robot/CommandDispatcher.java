@@ -0,0 +1,248 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.macro.MacroObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends Sphero commands from a thread per robot, so a stall in the Sphero SDK's Bluetooth path
+ * never holds up the game or detection threads.
+ *
+ * Each sender has a mailbox with one slot per kind of command. Posting returns right away and a
+ * newer command of the same kind replaces one not sent yet. Slots are sent in the order they were
+ * posted, and a stop empties the drive slot, so a drive never overtakes a later stop.
+ */
+public class CommandDispatcher {
+    private final Clock clock;
+    private final List<Sender> senders = new ArrayList<>();
+
+    /**
+     * @param clock Times how long commands wait and take to send, for the stats.
+     */
+    public CommandDispatcher(Clock clock) {
+        this.clock = clock;
+    }
+
+    /** Starts a sender for {@code robot}, and returns it for the game to post commands to. */
+    public synchronized Sender add(String name, CommandCoalescer.Robot robot) {
+        final Sender sender = new Sender(name, robot, clock);
+        senders.add(sender);
+        sender.thread.start();
+        return sender;
+    }
+
+    /**
+     * Stops all the senders, dropping the commands not sent yet. Senders added afterwards start
+     * afresh, so the dispatcher can be reused.
+     */
+    public synchronized void shutdown() {
+        for (Sender sender : senders) {
+            sender.thread.interrupt();
+        }
+        senders.clear();
+    }
+
+    public synchronized List<String> getStatStrings() {
+        final List<String> lines = new ArrayList<>();
+        for (Sender sender : senders) {
+            lines.add(sender.getStatString());
+        }
+        return lines;
+    }
+
+    /** The mailbox and thread of one robot. */
+    public static class Sender implements CommandCoalescer.Robot {
+        private static final int STOP = 0;
+        private static final int DRIVE = 1;
+        private static final int LED = 2;
+        private static final int MACRO = 3;
+        private static final int NUM_SLOTS = 4;
+
+        private final String name;
+        private final CommandCoalescer.Robot robot;
+        private final Clock clock;
+        private final Thread thread;
+
+        // Post order and time of each slot, 0 when empty.
+        private final long[] sequence = new long[NUM_SLOTS];
+        private final long[] postTimeMs = new long[NUM_SLOTS];
+        private long nextSequence = 1;
+        private float heading;
+        private float speed;
+        private float red;
+        private float green;
+        private float blue;
+        private MacroObject macro;
+
+        private long sent = 0;
+        private long superseded = 0;
+        private long lastQueueMs = 0;
+        private long maxQueueMs = 0;
+        private long lastSendMs = 0;
+        private long maxSendMs = 0;
+
+        Sender(String name, CommandCoalescer.Robot robot, Clock clock) {
+            this.name = name;
+            this.robot = robot;
+            this.clock = clock;
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loop();
+                    } catch (InterruptedException e) {
+                        // Shut down.
+                    }
+                }
+            }, "Sender-" + name);
+            thread.setDaemon(true);
+        }
+
+        // Called with the lock held.
+        private void post(int slot) {
+            if (sequence[slot] != 0) {
+                superseded++;
+            }
+            sequence[slot] = nextSequence++;
+            postTimeMs[slot] = clock.uptimeMillis();
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void drive(float heading, float speed) {
+            this.heading = heading;
+            this.speed = speed;
+            post(DRIVE);
+        }
+
+        @Override
+        public synchronized void stop() {
+            if (sequence[DRIVE] != 0) {
+                sequence[DRIVE] = 0;
+                superseded++;
+            }
+            post(STOP);
+        }
+
+        @Override
+        public synchronized void setLed(float red, float green, float blue) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            post(LED);
+        }
+
+        @Override
+        public synchronized void playMacro(MacroObject macro) {
+            this.macro = macro;
+            post(MACRO);
+        }
+
+        // Shares the macro slot, an abort replaces a macro not played yet.
+        @Override
+        public synchronized void abortMacro() {
+            this.macro = null;
+            post(MACRO);
+        }
+
+        private void loop() throws InterruptedException {
+            while (!Thread.currentThread().isInterrupted()) {
+                final int slot;
+                final long queueMs;
+                final float heading;
+                final float speed;
+                final float red;
+                final float green;
+                final float blue;
+                final MacroObject macro;
+                synchronized (this) {
+                    int oldest;
+                    while ((oldest = oldestSlot()) < 0) {
+                        wait();
+                    }
+                    slot = oldest;
+                    sequence[slot] = 0;
+                    queueMs = clock.uptimeMillis() - postTimeMs[slot];
+                    heading = this.heading;
+                    speed = this.speed;
+                    red = this.red;
+                    green = this.green;
+                    blue = this.blue;
+                    macro = this.macro;
+                    this.macro = slot == MACRO ? null : this.macro;
+                }
+
+                // Outside the lock, posting never waits for Bluetooth.
+                final long startTime = clock.uptimeMillis();
+                switch (slot) {
+                    case STOP:
+                        robot.stop();
+                        break;
+                    case DRIVE:
+                        robot.drive(heading, speed);
+                        break;
+                    case LED:
+                        robot.setLed(red, green, blue);
+                        break;
+                    default:
+                        if (macro != null) {
+                            robot.playMacro(macro);
+                        } else {
+                            robot.abortMacro();
+                        }
+                        break;
+                }
+                final long sendMs = clock.uptimeMillis() - startTime;
+
+                synchronized (this) {
+                    sent++;
+                    lastQueueMs = queueMs;
+                    maxQueueMs = Math.max(maxQueueMs, queueMs);
+                    lastSendMs = sendMs;
+                    maxSendMs = Math.max(maxSendMs, sendMs);
+                }
+            }
+        }
+
+        private int oldestSlot() {
+            int oldest = -1;
+            for (int slot = 0; slot < NUM_SLOTS; slot++) {
+                if (sequence[slot] != 0 && (oldest < 0 || sequence[slot] < sequence[oldest])) {
+                    oldest = slot;
+                }
+            }
+            return oldest;
+        }
+
+        public synchronized long getSent() {
+            return sent;
+        }
+
+        public synchronized long getSuperseded() {
+            return superseded;
+        }
+
+        public synchronized String getStatString() {
+            return name + " sender: sent " + sent + ", superseded " + superseded
+                    + ", queued " + lastQueueMs + "ms (max " + maxQueueMs + "ms)"
+                    + ", send " + lastSendMs + "ms (max " + maxSendMs + "ms)";
+        }
+    }
+}
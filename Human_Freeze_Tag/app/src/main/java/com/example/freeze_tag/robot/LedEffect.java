@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.macro.MacroObject;
+import com.orbotix.macro.cmd.Delay;
+import com.orbotix.macro.cmd.Fade;
+import com.orbotix.macro.cmd.LoopEnd;
+import com.orbotix.macro.cmd.LoopStart;
+
+/**
+ * An LED animation that runs on the Sphero as a macro. Each one is built once and shared by all
+ * the robots, {@link CommandCoalescer#startEffect} uploads it only when it isn't already running.
+ */
+public class LedEffect {
+    // Times the frozen blink repeats on the Sphero before it has to be started again.
+    private static final int FROZEN_BLINK_LOOPS = 60;
+
+    /** Blinks white twice a second, for as long as a bot stays frozen. */
+    public static final LedEffect FROZEN_BLINK = new LedEffect("Frozen blink",
+            blink(64, 64, 64, 250, FROZEN_BLINK_LOOPS), FROZEN_BLINK_LOOPS * 1000);
+
+    private final String name;
+    private final MacroObject macro;
+    private final long durationMs;
+
+    /**
+     * @param macro Played as is, it mustn't change afterwards.
+     * @param durationMs How long the macro runs on the Sphero.
+     */
+    public LedEffect(String name, MacroObject macro, long durationMs) {
+        this.name = name;
+        this.macro = macro;
+        this.durationMs = durationMs;
+    }
+
+    /** Fades between the color and off every {@code halfPeriodMs}, twice per loop. */
+    private static MacroObject blink(int red, int green, int blue, int halfPeriodMs, int loops) {
+        final MacroObject macro = new MacroObject();
+        macro.addCommand(new LoopStart(loops));
+        for (int i = 0; i < 2; i++) {
+            macro.addCommand(new Fade(red, green, blue, halfPeriodMs));
+            macro.addCommand(new Delay(halfPeriodMs));
+            macro.addCommand(new Fade(0, 0, 0, halfPeriodMs));
+            macro.addCommand(new Delay(halfPeriodMs));
+        }
+        macro.addCommand(new LoopEnd());
+        macro.setMode(MacroObject.MacroObjectMode.Normal);
+        return macro;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public MacroObject getMacro() {
+        return macro;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+}
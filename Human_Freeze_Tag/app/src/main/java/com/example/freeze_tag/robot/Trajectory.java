@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.macro.MacroObject;
+import com.orbotix.macro.cmd.Roll;
+
+/**
+ * A short plan of timed drives, played on the Sphero as a single macro. Once uploaded the Sphero
+ * keeps to it by itself, so it moves smoothly through late or lost frames, and stops at the end of
+ * the plan if no newer one comes.
+ */
+public class Trajectory {
+    private final int[] headings;
+    private final float speed;
+    private final int stepMs;
+
+    /**
+     * @param headings The heading of each step, in Sphero degrees.
+     * @param stepMs How long each heading is held.
+     */
+    public Trajectory(int[] headings, float speed, int stepMs) {
+        if (headings.length == 0) {
+            throw new IllegalArgumentException("Empty trajectory");
+        }
+        this.headings = headings;
+        this.speed = speed;
+        this.stepMs = stepMs;
+    }
+
+    /**
+     * Continues from {@code heading}, turning at a constant rate.
+     *
+     * @param degreesPerSecond The turn rate, positive for clockwise.
+     */
+    public static Trajectory turning(int heading, float degreesPerSecond, float speed, int steps,
+                                     int stepMs) {
+        final int[] headings = new int[steps];
+        for (int step = 0; step < steps; step++) {
+            final int degrees = heading + Math.round(degreesPerSecond * step * stepMs / 1000);
+            headings[step] = ((degrees % 360) + 360) % 360;
+        }
+        return new Trajectory(headings, speed, stepMs);
+    }
+
+    /** The heading the plan drives at {@code elapsedMs} after it started. */
+    public int getHeadingAt(long elapsedMs) {
+        final long step = Math.max(0, elapsedMs / stepMs);
+        return headings[(int) Math.min(step, headings.length - 1)];
+    }
+
+    public int getSteps() {
+        return headings.length;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public int getStepMs() {
+        return stepMs;
+    }
+
+    public long getDurationMs() {
+        return (long) headings.length * stepMs;
+    }
+
+    /** A Roll for each step, delayed by the step time, then one that stops. */
+    public MacroObject toMacro() {
+        final MacroObject macro = new MacroObject();
+        for (int heading : headings) {
+            macro.addCommand(new Roll(speed, heading, stepMs));
+        }
+        macro.addCommand(new Roll(0, headings[headings.length - 1], 0));
+        macro.setMode(MacroObject.MacroObjectMode.Normal);
+        return macro;
+    }
+}
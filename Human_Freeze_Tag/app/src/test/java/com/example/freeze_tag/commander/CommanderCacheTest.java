@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CommanderCacheTest {
+
+    private static float[] result(float value) {
+        return new float[] {value, value + 1};
+    }
+
+    @Test
+    public void get_servesInputsInTheSameQuantum() {
+        CommanderCache cache = new CommanderCache(4, 0.01f, 3, 2);
+        float[] out = new float[2];
+        assertFalse(cache.get(new float[] {0.5f, 0.2f, 0.8f}, 0, out));
+
+        cache.put(new float[] {0.5f, 0.2f, 0.8f}, 0, result(7));
+        assertTrue(cache.get(new float[] {9, 0.502f, 0.199f, 0.8f}, 1, out));
+        assertArrayEquals(result(7), out, 0.0f);
+        assertFalse(cache.get(new float[] {0.52f, 0.2f, 0.8f}, 0, out));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() {
+        CommanderCache cache = new CommanderCache(2, 0.1f, 1, 2);
+        float[] out = new float[2];
+        cache.put(new float[] {1}, 0, result(1));
+        cache.put(new float[] {2}, 0, result(2));
+        assertTrue(cache.get(new float[] {1}, 0, out));
+
+        cache.put(new float[] {3}, 0, result(3));
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(new float[] {1}, 0, out));
+        assertFalse(cache.get(new float[] {2}, 0, out));
+        assertTrue(cache.get(new float[] {3}, 0, out));
+        assertArrayEquals(result(3), out, 0.0f);
+
+        // Updating an entry doesn't add one.
+        cache.put(new float[] {3}, 0, result(4));
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(new float[] {3}, 0, out));
+        assertArrayEquals(result(4), out, 0.0f);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CommanderHistoryTest {
+    private static final int FIELDS = 10;
+
+    // How TfLiteCommander built the input from the two latest frames before the history ring,
+    // frames as bot, target, human, two blocks, x then y.
+    private static float[] previousInput(float[] older, float[] newer, float aggressiveness) {
+        double distance = 0.02;
+        float x1 = newer[0];
+        float y1 = newer[1];
+        double radian = Math.atan2(older[1] - y1, older[0] - x1);
+        float x2 = x1 + (float) (distance * Math.cos(radian));
+        float y2 = y1 + (float) (distance * Math.sin(radian));
+
+        float hX1 = newer[4];
+        float hY1 = newer[5];
+        double hRadian = Math.atan2(older[5] - hY1, older[4] - hX1);
+        float hX2 = hX1 + (float) (distance * Math.cos(hRadian));
+        float hY2 = hY1 + (float) (distance * Math.sin(hRadian));
+
+        return new float[] {
+                x2, y2, older[2], older[3], hX2, hY2, older[6], older[7], older[8], older[9], aggressiveness,
+                x1, y1, newer[2], newer[3], hX1, hY1, newer[6], newer[7], newer[8], newer[9], aggressiveness};
+    }
+
+    private static float[] randomFrame(Random random) {
+        float[] frame = new float[FIELDS];
+        for (int i = 0; i < FIELDS; i++) {
+            frame[i] = random.nextFloat();
+        }
+        return frame;
+    }
+
+    private static void add(CommanderHistory history, float[] f) {
+        history.add(f[0], f[1], f[2], f[3], f[4], f[5], f[6], f[7], f[8], f[9]);
+    }
+
+    @Test
+    public void write_matchesPreviousInput() {
+        Random random = new Random(19);
+        CommanderHistory history = new CommanderHistory(2);
+        float[] older = randomFrame(random);
+        add(history, older);
+        assertFalse(history.isFull());
+
+        // Wraps around the ring a few times.
+        for (int i = 0; i < 5; i++) {
+            float[] newer = randomFrame(random);
+            add(history, newer);
+            assertTrue(history.isFull());
+
+            float[] out = new float[3 + 2 * TfLiteCommander.FRAME_SIZE];
+            history.write(out, 3, 0.8f);
+            float[] expected = previousInput(older, newer, 0.8f);
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j], out[3 + j], 0.0f);
+            }
+            older = newer;
+        }
+    }
+
+    @Test
+    public void write_spacesOlderPositions() {
+        CommanderHistory history = new CommanderHistory(3);
+        // The bot moves right, fast then slow.
+        history.add(0.1f, 0.5f, 0, 0, 0.5f, 0.1f, 0, 0, 0, 0);
+        history.add(0.4f, 0.5f, 0, 0, 0.5f, 0.2f, 0, 0, 0, 0);
+        history.add(0.5f, 0.5f, 0, 0, 0.5f, 0.3f, 0, 0, 0, 0);
+
+        float[] out = new float[3 * TfLiteCommander.FRAME_SIZE];
+        history.write(out, 0, 0.0f);
+        assertEquals(0.46f, out[0], 1e-6f);
+        assertEquals(0.48f, out[TfLiteCommander.FRAME_SIZE], 1e-6f);
+        assertEquals(0.5f, out[2 * TfLiteCommander.FRAME_SIZE], 0.0f);
+        assertEquals(0.26f, out[5], 1e-6f);
+    }
+
+    @Test
+    public void headings_matchPreviousConversion() {
+        for (int i = 0; i < TfLiteCommander.NUM_HEADINGS; i++) {
+            float radians = (float) (i * (Math.PI / 10));
+            int heading = (int) ((radians * 180.0 / Math.PI) % 360);
+            assertEquals((450 - heading) % 360, Headings.spheroDegrees(i));
+            assertEquals(Math.cos(radians), Headings.cos(i), 0.0);
+            assertEquals(Math.sin(radians), Headings.sin(i), 0.0);
+        }
+
+        float[] scores = new float[TfLiteCommander.NUM_HEADINGS];
+        scores[7] = 2.0f;
+        scores[12] = 1.0f;
+        assertEquals(7, Headings.best(scores));
+    }
+
+    @Test
+    public void reuseResult_onlyWhileInputsStayWithinEpsilon() {
+        CommanderHistory history = new CommanderHistory(2);
+        // The human player stands still, the bot moves, almost stops, then moves again.
+        history.add(0.5f, 0.5f, 0, 0, 0.2f, 0.3f, 0, 0, 0, 0);
+        history.add(0.6f, 0.5f, 0, 0, 0.2f, 0.3f, 0, 0, 0, 0);
+        float[] input = new float[2 * TfLiteCommander.FRAME_SIZE];
+        float[] scores = new float[TfLiteCommander.NUM_HEADINGS];
+        history.write(input, 0, 0.8f);
+        assertFalse(history.reuseResult(input, 0, 0.01f, scores));
+
+        float[] result = new float[TfLiteCommander.NUM_HEADINGS];
+        result[3] = 1.0f;
+        history.rememberResult(input, 0, result);
+
+        history.add(0.605f, 0.5f, 0, 0, 0.2f, 0.3f, 0, 0, 0, 0);
+        history.write(input, 0, 0.8f);
+        assertTrue(history.reuseResult(input, 0, 0.01f, scores));
+        assertArrayEquals(result, scores, 0.0f);
+        assertFalse(history.reuseResult(input, 0, 0.0f, scores));
+
+        history.add(0.7f, 0.5f, 0, 0, 0.2f, 0.3f, 0, 0, 0, 0);
+        history.write(input, 0, 0.8f);
+        assertFalse(history.reuseResult(input, 0, 0.01f, scores));
+
+        history.clear();
+        assertFalse(history.reuseResult(input, 0, 1.0f, scores));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Reads the commander model shipped in the assets. Parity with the TensorFlow Lite interpreter
+ * is checked on a device by TfLiteCommanderTest.
+ */
+public class DenseModelTest {
+    private static final File ASSETS = new File("src/main/assets");
+    // Two frames of 11 floats.
+    private static final int OBSERVATION_SIZE = 2 * TfLiteCommander.FRAME_SIZE;
+
+    private static MappedByteBuffer map(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(ASSETS, fileName), "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private static ByteBuffer randomInputs(int count, long seed) {
+        Random random = new Random(seed);
+        ByteBuffer input = ByteBuffer.allocateDirect(count * OBSERVATION_SIZE * 4);
+        input.order(ByteOrder.nativeOrder());
+        for (int i = 0; i < count * OBSERVATION_SIZE; i++) {
+            input.putFloat(random.nextFloat());
+        }
+        return input;
+    }
+
+    @Test
+    public void commanderModel_readsLayers() throws IOException {
+        DenseModel model = new DenseModel(map("commander_model.tflite"), 1);
+        assertEquals(OBSERVATION_SIZE, model.getInputSize());
+        assertEquals(TfLiteCommander.NUM_HEADINGS, model.getOutputSize());
+        assertEquals(5, model.getNumLayers());
+        assertArrayEquals(new int[] {1, 2, TfLiteCommander.FRAME_SIZE},
+                TensorInfo.readInput(map("commander_model.tflite")).shape);
+    }
+
+    @Test
+    public void run_batchMatchesSingleRuns() throws IOException {
+        DenseModel model = new DenseModel(map("commander_model.tflite"), TfLiteCommander.MAX_BATCH_SIZE);
+        int count = TfLiteCommander.MAX_BATCH_SIZE;
+        ByteBuffer batch = randomInputs(count, 3);
+        float[][] batchResults = new float[count][TfLiteCommander.NUM_HEADINGS];
+        model.run(batch, count, batchResults);
+
+        ByteBuffer single = ByteBuffer.allocateDirect(OBSERVATION_SIZE * 4);
+        single.order(ByteOrder.nativeOrder());
+        float[][] singleResults = new float[1][TfLiteCommander.NUM_HEADINGS];
+        for (int b = 0; b < count; b++) {
+            single.clear();
+            for (int i = 0; i < OBSERVATION_SIZE; i++) {
+                single.putFloat(batch.getFloat((b * OBSERVATION_SIZE + i) * 4));
+            }
+            model.run(single, 1, singleResults);
+            assertArrayEquals(singleResults[0], batchResults[b], 0.0f);
+        }
+
+        boolean nonZero = false;
+        for (float score : batchResults[0]) {
+            assertFalse(Float.isNaN(score));
+            nonZero |= score != 0;
+        }
+        assertTrue(nonZero);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void detectionModel_isRejected() throws IOException {
+        new DenseModel(map("detect_model.tflite"), 1);
+    }
+}
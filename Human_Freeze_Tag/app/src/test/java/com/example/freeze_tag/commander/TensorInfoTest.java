@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.commander;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.junit.Assert.*;
+
+public class TensorInfoTest {
+    private static final File ASSETS = new File("src/main/assets");
+
+    private static MappedByteBuffer map(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(ASSETS, fileName), "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void floatCommanderModel() throws IOException {
+        TensorInfo input = TensorInfo.readInput(map("commander_model.tflite"));
+        assertEquals(TensorInfo.FLOAT32, input.type);
+        assertFalse(input.isQuantized());
+        assertEquals(4, input.getElementSize());
+        assertEquals(2 * TfLiteCommander.FRAME_SIZE, input.getBatchEntrySize());
+
+        TensorInfo output = TensorInfo.readOutput(map("commander_model.tflite"));
+        assertArrayEquals(new int[] {1, TfLiteCommander.NUM_HEADINGS}, output.shape);
+        assertFalse(output.isQuantized());
+    }
+
+    @Test
+    public void quantizedDetectionModelInput() throws IOException {
+        // The detector takes uint8 pixels, quantized from -1 to 1.
+        TensorInfo input = TensorInfo.readInput(map("detect_model.tflite"));
+        assertEquals(TensorInfo.UINT8, input.type);
+        assertTrue(input.isQuantized());
+        assertEquals(1, input.getElementSize());
+        assertEquals(0.0078125f, input.scale, 0.0f);
+        assertEquals(128, input.zeroPoint);
+
+        assertEquals(128, input.quantize(0.0f) & 0xff);
+        assertEquals(255, input.quantize(0.99f) & 0xff);
+        assertEquals(255, input.quantize(5.0f) & 0xff);
+        assertEquals(0, input.quantize(-5.0f) & 0xff);
+        assertEquals(-1.0f, input.dequantize((byte) 0), 0.0f);
+        assertEquals(0.9921875f, input.dequantize((byte) 255), 0.0f);
+    }
+
+    @Test
+    public void int8RoundTrip() {
+        TensorInfo info = new TensorInfo(TensorInfo.INT8, new int[] {1, 20}, 0.1f, -3);
+        for (float value = -12.0f; value < 12.0f; value += 0.37f) {
+            assertEquals(value, info.dequantize(info.quantize(value)), 0.05f);
+        }
+        assertEquals(127, info.quantize(100.0f));
+        assertEquals(-128, info.quantize(-100.0f));
+    }
+}
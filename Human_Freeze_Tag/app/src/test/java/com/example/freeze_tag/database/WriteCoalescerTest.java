@@ -0,0 +1,134 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class WriteCoalescerTest {
+
+    /** Stands in for Firebase: keeps the updates until the test completes them. */
+    private static class LocalSink implements WriteCoalescer.Sink {
+        final Map<String, Object> stored = new HashMap<>();
+        final List<Map<String, Object>> updates = new ArrayList<>();
+        final List<WriteCoalescer.Callback> callbacks = new ArrayList<>();
+
+        @Override
+        public void updateChildren(Map<String, Object> values, WriteCoalescer.Callback done) {
+            updates.add(values);
+            callbacks.add(done);
+        }
+
+        void complete(int update, boolean success) {
+            if (success) {
+                stored.putAll(updates.get(update));
+            }
+            callbacks.get(update).onComplete(success);
+        }
+    }
+
+    private final LocalSink sink = new LocalSink();
+    private final WriteCoalescer writes = new WriteCoalescer("Test", sink, 100);
+
+    @Test
+    public void flush_mergesDirtyPathsIntoOneUpdate() {
+        writes.set("game_timer", 60L);
+        writes.set("player_blue/score", 0);
+        writes.set("player_blue/score", 1);
+        writes.set("player_blue/score", 2);
+        assertEquals(2, writes.getDirtyCount());
+
+        writes.flush();
+        // Nothing dirty, nothing sent.
+        writes.flush();
+
+        assertEquals(1, sink.updates.size());
+        assertEquals(2, sink.updates.get(0).size());
+        assertEquals(2, sink.updates.get(0).get("player_blue/score"));
+        assertEquals(1, writes.getUpdates());
+        assertEquals(2, writes.getSent());
+        assertEquals(2, writes.getSuppressed());
+        assertTrue(writes.getBytesSent() > 0);
+    }
+
+    @Test
+    public void set_skipsValuesAcknowledgedOrInFlight() {
+        writes.set("player_blue/score", 3);
+        writes.flush();
+        // Same as in flight.
+        writes.set("player_blue/score", 3);
+        writes.flush();
+        assertEquals(1, sink.updates.size());
+
+        sink.complete(0, true);
+        writes.set("player_blue/score", 3);
+        writes.set("player_blue/score", 4);
+        // Back to the acknowledged value before the flush.
+        writes.set("player_blue/score", 3);
+        writes.flush();
+
+        assertEquals(1, sink.updates.size());
+        assertEquals(4, writes.getSuppressed());
+    }
+
+    @Test
+    public void setAlways_sendsUnchangedValues() {
+        writes.setAlways("player_blue/vibrate", true);
+        writes.flush();
+        sink.complete(0, true);
+        // Reset by the player's device in the meantime.
+        writes.setAlways("player_blue/vibrate", true);
+        writes.flush();
+
+        assertEquals(2, sink.updates.size());
+    }
+
+    @Test
+    public void failedUpdate_isSentAgainUnlessWrittenSince() {
+        writes.set("game_timer", 10L);
+        writes.set("player_blue/score", 5);
+        writes.flush();
+        writes.set("game_timer", 9L);
+        writes.flush();
+
+        sink.complete(0, false);
+        assertEquals(1, writes.getDirtyCount());
+        writes.flush();
+        assertEquals(3, sink.updates.size());
+        assertEquals(1, sink.updates.get(2).size());
+        assertEquals(5, sink.updates.get(2).get("player_blue/score"));
+
+        sink.complete(1, true);
+        sink.complete(2, true);
+        assertEquals(9L, sink.stored.get("game_timer"));
+        assertEquals(5, sink.stored.get("player_blue/score"));
+        assertEquals(0, writes.getDirtyCount());
+    }
+
+    @Test
+    public void stop_flushes() {
+        writes.set("start_game", false);
+        writes.stop();
+        assertEquals(1, sink.updates.size());
+    }
+}
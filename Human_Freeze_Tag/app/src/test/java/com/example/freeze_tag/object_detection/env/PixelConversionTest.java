@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.env;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the Java pixel conversions against the original per-pixel implementations.
+ */
+public class PixelConversionTest {
+    private static final int kMaxChannelValue = 262143;
+
+    // The per-pixel conversion ImageUtils used before it switched to lookup tables.
+    private static int referenceYUV2RGB(int y, int u, int v) {
+        y = (y - 16) < 0 ? 0 : (y - 16);
+        u -= 128;
+        v -= 128;
+
+        int y1192 = 1192 * y;
+        int r = (y1192 + 1634 * v);
+        int g = (y1192 - 833 * v - 400 * u);
+        int b = (y1192 + 2066 * u);
+
+        r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
+        g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
+        b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
+
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+    private static void referenceYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+        final int frameSize = width * height;
+        for (int j = 0, yp = 0; j < height; j++) {
+            int uvp = frameSize + (j >> 1) * width;
+            int u = 0;
+            int v = 0;
+
+            for (int i = 0; i < width; i++, yp++) {
+                int y = 0xff & input[yp];
+                if ((i & 1) == 0) {
+                    v = 0xff & input[uvp++];
+                    u = 0xff & input[uvp++];
+                }
+
+                output[yp] = referenceYUV2RGB(y, u, v);
+            }
+        }
+    }
+
+    private static void referenceYUV420ToARGB8888(byte[] yData, byte[] uData, byte[] vData,
+            int width, int height, int yRowStride, int uvRowStride, int uvPixelStride, int[] out) {
+        int yp = 0;
+        for (int j = 0; j < height; j++) {
+            int pY = yRowStride * j;
+            int pUV = uvRowStride * (j >> 1);
+
+            for (int i = 0; i < width; i++) {
+                int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+                out[yp++] = referenceYUV2RGB(
+                        0xff & yData[pY + i],
+                        0xff & uData[uv_offset],
+                        0xff & vData[uv_offset]);
+            }
+        }
+    }
+
+    // Y plane plus the interleaved V/U plane, with odd sizes rounded up.
+    private static int nv21Size(int width, int height) {
+        return width * height + ((width + 1) / 2) * ((height + 1) / 2) * 2;
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void yuv2rgb_matchesReferenceForAllValues() {
+        for (int y = 0; y < 256; y++) {
+            for (int u = 0; u < 256; u++) {
+                for (int v = 0; v < 256; v++) {
+                    if (PixelConversion.YUV2RGB(y, u, v) != referenceYUV2RGB(y, u, v)) {
+                        fail("Mismatch for y=" + y + " u=" + u + " v=" + v);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convertYUV420SP_matchesReference() {
+        Random random = new Random(42);
+        int[][] sizes = {{448, 448}, {640, 480}, {33, 17}, {1, 1}, {7, 2}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            // Odd widths make the reference read one chroma byte past its row, allow for it.
+            byte[] input = randomBytes(random, nv21Size(width, height) + width);
+            int[] expected = new int[width * height];
+            int[] actual = new int[width * height];
+
+            referenceYUV420SPToARGB8888(input, width, height, expected);
+            PixelConversion.convertYUV420SPToARGB8888(input, width, height, actual, 0, height);
+
+            assertArrayEquals("Size " + width + "x" + height, expected, actual);
+        }
+    }
+
+    @Test
+    public void convertYUV420_matchesReferenceForAllStrides() {
+        Random random = new Random(7);
+        int[][] sizes = {{448, 448}, {640, 480}, {33, 17}, {1, 1}};
+        int[] pixelStrides = {1, 2, 3};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            for (int uvPixelStride : pixelStrides) {
+                // Pad rows the way camera HALs do.
+                int yRowStride = width + 16;
+                int uvRowStride = ((width + 1) / 2) * uvPixelStride + 8;
+                int uvRows = (height + 1) / 2;
+
+                byte[] yData = randomBytes(random, yRowStride * height);
+                byte[] uData = randomBytes(random, uvRowStride * uvRows);
+                byte[] vData = randomBytes(random, uvRowStride * uvRows);
+                int[] expected = new int[width * height];
+                int[] actual = new int[width * height];
+
+                referenceYUV420ToARGB8888(yData, uData, vData, width, height,
+                        yRowStride, uvRowStride, uvPixelStride, expected);
+                PixelConversion.convertYUV420ToARGB8888(yData, uData, vData, width,
+                        yRowStride, uvRowStride, uvPixelStride, actual, 0, height);
+
+                assertArrayEquals("Size " + width + "x" + height + " pixel stride " + uvPixelStride,
+                        expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void parallelConversion_matchesSerial() {
+        Random random = new Random(3);
+        PixelConversion.setNumThreads(3);
+        int[][] sizes = {{448, 448}, {640, 480}, {33, 17}, {5, 3}, {1, 1}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            byte[] input = randomBytes(random, nv21Size(width, height) + width);
+            int[] serial = new int[width * height];
+            int[] parallel = new int[width * height];
+
+            PixelConversion.convertYUV420SPToARGB8888(input, width, height, serial, false);
+            PixelConversion.convertYUV420SPToARGB8888(input, width, height, parallel, true);
+            assertArrayEquals("NV21 " + width + "x" + height, serial, parallel);
+
+            int uvRowStride = width + 1;
+            byte[] yData = randomBytes(random, width * height);
+            byte[] uvData = randomBytes(random, uvRowStride * ((height + 1) / 2));
+
+            PixelConversion.convertYUV420ToARGB8888(yData, uvData, uvData, width, height,
+                    width, uvRowStride, 2, serial, false);
+            PixelConversion.convertYUV420ToARGB8888(yData, uvData, uvData, width, height,
+                    width, uvRowStride, 2, parallel, true);
+            assertArrayEquals("YUV420 " + width + "x" + height, serial, parallel);
+        }
+    }
+
+    @Test
+    public void decimatedConversion_averagesLuminanceBlocks() {
+        Random random = new Random(11);
+        int width = 64;
+        int height = 48;
+        int decimation = 2;
+        byte[] input = randomBytes(random, nv21Size(width, height));
+        // Make every 2x2 luminance block uniform, so decimating is plain subsampling.
+        for (int j = 0; j < height; j += 2) {
+            for (int i = 0; i < width; i += 2) {
+                byte y = input[j * width + i];
+                input[j * width + i + 1] = y;
+                input[(j + 1) * width + i] = y;
+                input[(j + 1) * width + i + 1] = y;
+            }
+        }
+
+        int[] full = new int[width * height];
+        int[] decimated = new int[(width / decimation) * (height / decimation)];
+        PixelConversion.convertYUV420SPToARGB8888(input, width, height, full, false);
+        PixelConversion.decimateYUV420ToARGB8888(input, input, input, width * height + 1,
+                width * height, width, height, width, width, 2, decimation, decimated, false);
+
+        for (int j = 0; j < height / decimation; j++) {
+            for (int i = 0; i < width / decimation; i++) {
+                assertEquals(full[j * decimation * width + i * decimation],
+                        decimated[j * (width / decimation) + i]);
+            }
+        }
+        assertEquals(2, PixelConversion.getDecimationFactor(1280, 720, 300));
+        assertEquals(1, PixelConversion.getDecimationFactor(448, 448, 300));
+    }
+
+    @Test
+    public void convertYUV420SPToRGB565_truncatesARGB8888() {
+        Random random = new Random(5);
+        int width = 33;
+        int height = 17;
+        byte[] input = randomBytes(random, nv21Size(width, height) + width);
+        int[] argb = new int[width * height];
+        byte[] rgb565 = new byte[width * height * 2];
+
+        PixelConversion.convertYUV420SPToARGB8888(input, width, height, argb, false);
+        PixelConversion.convertYUV420SPToRGB565(input, width, height, rgb565);
+
+        ByteBuffer buffer = ByteBuffer.wrap(rgb565).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < width * height; i++) {
+            int pixel = buffer.getShort(i * 2) & 0xffff;
+            assertEquals((argb[i] >> 19) & 0x1f, pixel >> 11);
+            assertEquals((argb[i] >> 10) & 0x3f, (pixel >> 5) & 0x3f);
+            assertEquals((argb[i] >> 3) & 0x1f, pixel & 0x1f);
+        }
+    }
+
+    @Test
+    public void packARGB8888ToRGB888_matchesPerByteFill() {
+        Random random = new Random(13);
+        int[] pixels = new int[300 * 300];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+
+        // The loop TfLiteObjectDetection filled its input with before the bulk put.
+        ByteBuffer expected = ByteBuffer.allocateDirect(pixels.length * 3);
+        for (int pixel : pixels) {
+            expected.put((byte) ((pixel >> 16) & 0xFF));
+            expected.put((byte) ((pixel >> 8) & 0xFF));
+            expected.put((byte) (pixel & 0xFF));
+        }
+
+        byte[] rgb = new byte[pixels.length * 3];
+        PixelConversion.packARGB8888ToRGB888(pixels, pixels.length, rgb);
+        ByteBuffer actual = ByteBuffer.allocateDirect(rgb.length);
+        actual.put(rgb);
+
+        expected.rewind();
+        actual.rewind();
+        assertEquals(expected, actual);
+    }
+}
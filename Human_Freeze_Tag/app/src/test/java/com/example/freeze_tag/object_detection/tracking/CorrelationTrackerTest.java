@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.tracking;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CorrelationTrackerTest {
+    private static final int WIDTH = 96;
+    private static final int HEIGHT = 64;
+    private static final int STRIDE = 100;
+
+    // A noisy floor with a bright ball of radius 8, with a darker spot so it isn't symmetric.
+    private static byte[] frame(int ballX, int ballY, int brightness) {
+        Random random = new Random(3);
+        byte[] luminance = new byte[STRIDE * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int value = 40 + random.nextInt(20);
+                int dx = x - ballX;
+                int dy = y - ballY;
+                if (dx * dx + dy * dy <= 64) {
+                    value = (dx > 2 && dy > 2) ? brightness / 2 : brightness;
+                }
+                luminance[y * STRIDE + x] = (byte) value;
+            }
+        }
+        return luminance;
+    }
+
+    @Test
+    public void track_followsMovingBall() {
+        CorrelationTracker tracker = new CorrelationTracker(6);
+        tracker.setTemplate(frame(30, 30, 220), WIDTH, HEIGHT, STRIDE, 30, 30, 20);
+        assertTrue(tracker.isValid());
+
+        int ballX = 30;
+        int ballY = 30;
+        for (int i = 0; i < 5; i++) {
+            ballX += 4;
+            ballY += 2;
+            float correlation = tracker.track(frame(ballX, ballY, 220), WIDTH, HEIGHT, STRIDE);
+            assertTrue(correlation > 0.8f);
+            assertEquals(ballX, tracker.getCenterX(), 1.0f);
+            assertEquals(ballY, tracker.getCenterY(), 1.0f);
+        }
+    }
+
+    @Test
+    public void track_toleratesBrightnessChange() {
+        CorrelationTracker tracker = new CorrelationTracker(6);
+        tracker.setTemplate(frame(40, 30, 220), WIDTH, HEIGHT, STRIDE, 40, 30, 20);
+
+        float correlation = tracker.track(frame(43, 31, 160), WIDTH, HEIGHT, STRIDE);
+        assertTrue(correlation > 0.8f);
+        assertEquals(43, tracker.getCenterX(), 1.0f);
+        assertEquals(31, tracker.getCenterY(), 1.0f);
+    }
+
+    @Test
+    public void track_reportsLostObject() {
+        CorrelationTracker tracker = new CorrelationTracker(6);
+        tracker.setTemplate(frame(40, 30, 220), WIDTH, HEIGHT, STRIDE, 40, 30, 20);
+
+        // The ball moved further than the search radius.
+        float correlation = tracker.track(frame(70, 30, 220), WIDTH, HEIGHT, STRIDE);
+        assertTrue(correlation < 0.5f);
+    }
+
+    @Test
+    public void setTemplate_rejectsFlatPatchAndEdges() {
+        byte[] flat = new byte[STRIDE * HEIGHT];
+        Arrays.fill(flat, (byte) 50);
+        CorrelationTracker tracker = new CorrelationTracker(6);
+        tracker.setTemplate(flat, WIDTH, HEIGHT, STRIDE, 40, 30, 20);
+        assertFalse(tracker.isValid());
+
+        tracker.setTemplate(frame(40, 30, 220), WIDTH, HEIGHT, STRIDE, 2, 2, 20);
+        assertFalse(tracker.isValid());
+        assertEquals(0.0f, tracker.track(flat, WIDTH, HEIGHT, STRIDE), 0.0f);
+    }
+}
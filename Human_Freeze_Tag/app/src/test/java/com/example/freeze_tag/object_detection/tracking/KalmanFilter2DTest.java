@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.object_detection.tracking;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KalmanFilter2DTest {
+
+    private static KalmanFilter2D newFilter() {
+        return new KalmanFilter2D(0.005, 0.5, 0.15, 1000);
+    }
+
+    @Test
+    public void update_estimatesConstantVelocity() {
+        KalmanFilter2D filter = newFilter();
+        // 0.2 per second along x, -0.1 per second along y, at 30 fps.
+        for (int i = 0; i <= 60; i++) {
+            long t = i * 33;
+            filter.update(0.1 + 0.2 * t / 1000.0, 0.8 - 0.1 * t / 1000.0, t);
+        }
+
+        assertEquals(0.2f, filter.getVelocityX(), 0.01f);
+        assertEquals(-0.1f, filter.getVelocityY(), 0.01f);
+        // Predicts ahead along the same line.
+        long t = 60 * 33 + 100;
+        assertEquals(0.1f + 0.2f * t / 1000.0f, filter.getX(t), 0.005f);
+        assertEquals(0.8f - 0.1f * t / 1000.0f, filter.getY(t), 0.005f);
+    }
+
+    @Test
+    public void update_smoothsJitter() {
+        KalmanFilter2D filter = newFilter();
+        Random random = new Random(5);
+        double rawSquaredError = 0;
+        double filteredSquaredError = 0;
+        for (int i = 0; i <= 90; i++) {
+            long t = i * 33;
+            double noise = (random.nextDouble() - 0.5) * 0.02;
+            filter.update(0.5 + noise, 0.5, t);
+            if (i > 30) {
+                rawSquaredError += noise * noise;
+                filteredSquaredError += Math.pow(filter.getX(t) - 0.5, 2);
+            }
+        }
+
+        assertTrue(Math.sqrt(filteredSquaredError) < 0.6 * Math.sqrt(rawSquaredError));
+    }
+
+    @Test
+    public void update_restartsAfterJumpOrGap() {
+        KalmanFilter2D filter = newFilter();
+        for (int i = 0; i <= 30; i++) {
+            filter.update(0.1 + 0.01 * i, 0.5, i * 33);
+        }
+
+        // Found again somewhere else.
+        filter.update(0.9, 0.1, 31 * 33);
+        assertEquals(0.9f, filter.getX(31 * 33), 0.0f);
+        assertEquals(0.0f, filter.getVelocityX(), 0.0f);
+
+        // Not seen for too long.
+        filter.update(0.91, 0.1, 32 * 33);
+        filter.update(0.5, 0.5, 32 * 33 + 2000);
+        assertEquals(0.5f, filter.getX(32 * 33 + 2000), 0.0f);
+        assertEquals(0.0f, filter.getVelocityX(), 0.0f);
+    }
+
+    @Test
+    public void update_ignoresOutOfOrderMeasurement() {
+        KalmanFilter2D filter = newFilter();
+        filter.update(0.5, 0.5, 100);
+        filter.update(0.6, 0.5, 50);
+        assertEquals(0.5f, filter.getX(100), 0.0f);
+        assertEquals(100, filter.getTimestampMs());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlotQueueTest {
+
+    private static SlotQueue<SlotQueue.Slot> newQueue(int capacity, SlotQueue.DropPolicy dropPolicy) {
+        return new SlotQueue<>("test", capacity, dropPolicy, new SlotQueue.Factory<SlotQueue.Slot>() {
+            @Override
+            public SlotQueue.Slot create() {
+                return new SlotQueue.Slot();
+            }
+        });
+    }
+
+    private static void publish(SlotQueue<SlotQueue.Slot> queue, long sequence) throws InterruptedException {
+        SlotQueue.Slot slot = queue.claim();
+        slot.sequence = sequence;
+        queue.publish(slot);
+    }
+
+    @Test
+    public void slots_areTakenInOrder() throws InterruptedException {
+        SlotQueue<SlotQueue.Slot> queue = newQueue(3, SlotQueue.DropPolicy.BLOCK);
+        publish(queue, 0);
+        publish(queue, 1);
+        assertEquals(2, queue.getDepth());
+
+        SlotQueue.Slot slot = queue.take();
+        assertEquals(0, slot.sequence);
+        queue.release(slot);
+        assertEquals(1, queue.take().sequence);
+        assertEquals(0, queue.getDepth());
+        assertEquals(2, queue.getMaxDepth());
+    }
+
+    @Test
+    public void latestWins_recyclesOldestWaitingSlot() throws InterruptedException {
+        SlotQueue<SlotQueue.Slot> queue = newQueue(3, SlotQueue.DropPolicy.LATEST_WINS);
+        for (int i = 0; i < 5; i++) {
+            publish(queue, i);
+        }
+
+        assertEquals(2, queue.getDropped());
+        assertEquals(2, queue.take().sequence);
+        assertEquals(3, queue.take().sequence);
+        assertEquals(4, queue.take().sequence);
+    }
+
+    @Test
+    public void latestWins_neverRecyclesTakenSlot() throws InterruptedException {
+        SlotQueue<SlotQueue.Slot> queue = newQueue(3, SlotQueue.DropPolicy.LATEST_WINS);
+        publish(queue, 0);
+        SlotQueue.Slot taken = queue.take();
+        for (int i = 1; i < 5; i++) {
+            publish(queue, i);
+        }
+
+        assertEquals(0, taken.sequence);
+        assertEquals(3, queue.take().sequence);
+        assertEquals(4, queue.take().sequence);
+    }
+
+    @Test
+    public void block_waitsForRelease() throws InterruptedException {
+        final SlotQueue<SlotQueue.Slot> queue = newQueue(1, SlotQueue.DropPolicy.BLOCK);
+        publish(queue, 0);
+
+        final SlotQueue.Slot taken = queue.take();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.release(taken);
+            }
+        });
+        consumer.start();
+
+        publish(queue, 1);
+        consumer.join();
+        assertEquals(0, queue.getDropped());
+        assertEquals(1, queue.take().sequence);
+    }
+
+    @Test
+    public void close_wakesUpConsumer() throws InterruptedException {
+        SlotQueue<SlotQueue.Slot> queue = newQueue(3, SlotQueue.DropPolicy.LATEST_WINS);
+        queue.close();
+        assertNull(queue.take());
+        assertNull(queue.claim());
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.macro.MacroObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandCoalescerTest {
+
+    /** Records what was sent. */
+    private static class FakeRobot implements CommandCoalescer.Robot {
+        final List<String> commands = new ArrayList<>();
+
+        @Override
+        public void drive(float heading, float speed) {
+            commands.add("drive " + (int) heading);
+        }
+
+        @Override
+        public void stop() {
+            commands.add("stop");
+        }
+
+        @Override
+        public void setLed(float red, float green, float blue) {
+            commands.add("led " + red);
+        }
+
+        @Override
+        public void playMacro(MacroObject macro) {
+            commands.add("macro");
+        }
+
+        @Override
+        public void abortMacro() {
+            commands.add("abort");
+        }
+    }
+
+    // Only the methods without a time read it, the tests pass their own times.
+    private static final Clock CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    private final FakeRobot robot = new FakeRobot();
+    private final CommandCoalescer commands =
+            new CommandCoalescer("Test", robot, CLOCK, 100, 5.0f, 1000);
+
+    @Test
+    public void drive_dropsRepeatedHeadingsUntilRefresh() {
+        commands.drive(90, 0.2f, 0);
+        commands.drive(90, 0.2f, 200);
+        commands.drive(93, 0.2f, 400);
+        commands.drive(358, 0.2f, 600);
+        commands.drive(2, 0.2f, 800);
+        commands.drive(2, 0.2f, 1700);
+
+        assertEquals(3, robot.commands.size());
+        assertEquals("drive 90", robot.commands.get(0));
+        assertEquals("drive 358", robot.commands.get(1));
+        assertEquals("drive 2", robot.commands.get(2));
+        assertEquals(3, commands.getSent());
+        assertEquals(3, commands.getSuppressed());
+    }
+
+    @Test
+    public void drive_waitsForIntervalAndKeepsLatest() {
+        commands.drive(0, 0.2f, 0);
+        commands.drive(90, 0.2f, 30);
+        commands.drive(180, 0.2f, 60);
+        commands.flush(90);
+        assertEquals(1, robot.commands.size());
+
+        commands.flush(100);
+        commands.flush(150);
+        assertEquals(2, robot.commands.size());
+        assertEquals("drive 180", robot.commands.get(1));
+        assertEquals(1, commands.getSuppressed());
+    }
+
+    @Test
+    public void drive_backToSentHeadingDropsWaitingDrive() {
+        commands.drive(0, 0.2f, 0);
+        commands.drive(90, 0.2f, 30);
+        commands.drive(0, 0.2f, 60);
+        commands.flush(200);
+        assertEquals(1, robot.commands.size());
+        assertEquals(2, commands.getSuppressed());
+    }
+
+    @Test
+    public void stop_preemptsWaitingDrive() {
+        commands.drive(0, 0.2f, 0);
+        commands.drive(90, 0.2f, 30);
+        commands.stop();
+        commands.flush(200);
+
+        assertEquals(2, robot.commands.size());
+        assertEquals("stop", robot.commands.get(1));
+        assertEquals(1, commands.getPreempted());
+
+        // After a stop the same heading is a new drive.
+        commands.drive(0, 0.2f, 300);
+        assertEquals("drive 0", robot.commands.get(2));
+    }
+
+    @Test
+    public void setLed_onlySendsChanges() {
+        commands.setLed(0, 0, 0);
+        commands.setLed(0, 0, 0);
+        commands.setLed(0.25f, 0.25f, 0.25f);
+        assertEquals(2, robot.commands.size());
+
+        commands.forgetLed();
+        commands.setLed(0.25f, 0.25f, 0.25f);
+        assertEquals(3, robot.commands.size());
+        assertEquals(1, commands.getSuppressed());
+    }
+
+    @Test
+    public void startEffect_playsOnceUntilItEnds() {
+        final long durationMs = LedEffect.FROZEN_BLINK.getDurationMs();
+        for (long t = 0; t < durationMs; t += 33) {
+            commands.startEffect(LedEffect.FROZEN_BLINK, t);
+        }
+        assertEquals(1, robot.commands.size());
+        assertEquals("macro", robot.commands.get(0));
+        assertSame(LedEffect.FROZEN_BLINK, commands.getEffect());
+
+        // Started again once over, if still wanted.
+        commands.startEffect(LedEffect.FROZEN_BLINK, durationMs);
+        assertEquals(2, robot.commands.size());
+    }
+
+    @Test
+    public void setLed_abortsEffect() {
+        commands.setLed(0.25f, 0.25f, 0.25f);
+        commands.startEffect(LedEffect.FROZEN_BLINK, 0);
+        commands.setLed(0.25f, 0.25f, 0.25f);
+        commands.stopEffect();
+
+        assertEquals(4, robot.commands.size());
+        assertEquals("abort", robot.commands.get(2));
+        // The effect changed the LED, so the same color is sent again.
+        assertEquals("led 0.25", robot.commands.get(3));
+        assertNull(commands.getEffect());
+
+        // Not running any more, so started right away.
+        commands.startEffect(LedEffect.FROZEN_BLINK, 100);
+        assertEquals("macro", robot.commands.get(4));
+    }
+
+    @Test
+    public void driveTrajectory_uploadsOnlyWhenOffPlanOrEnding() {
+        // 0, 10, 20, 30 degrees, 100ms each.
+        commands.drive(Trajectory.turning(0, 100, 0.2f, 4, 100), 0);
+        // Where the running plan is anyway.
+        commands.drive(Trajectory.turning(10, 100, 0.2f, 4, 100), 150);
+        commands.drive(Trajectory.turning(22, 100, 0.2f, 4, 100), 250);
+        assertEquals(1, robot.commands.size());
+        assertEquals(2, commands.getSuppressed());
+
+        // Its last step, time for the next one.
+        commands.drive(Trajectory.turning(30, 100, 0.2f, 4, 100), 300);
+        assertEquals(2, robot.commands.size());
+
+        // Off the plan, but too soon after the last upload.
+        commands.drive(Trajectory.turning(180, 0, 0.2f, 4, 100), 350);
+        assertEquals(2, robot.commands.size());
+        commands.drive(Trajectory.turning(180, 0, 0.2f, 4, 100), 400);
+        assertEquals(3, robot.commands.size());
+        assertEquals("macro", robot.commands.get(2));
+    }
+
+    @Test
+    public void stop_abortsTrajectory() {
+        commands.drive(Trajectory.turning(0, 0, 0.2f, 4, 100), 0);
+        commands.stop();
+        commands.stop();
+
+        assertEquals(4, robot.commands.size());
+        assertEquals("abort", robot.commands.get(1));
+        assertEquals("stop", robot.commands.get(2));
+        assertEquals(1, commands.getPreempted());
+
+        // A single drive ends a running trajectory first.
+        commands.drive(Trajectory.turning(0, 0, 0.2f, 4, 100), 1000);
+        commands.drive(90, 0.2f, 1200);
+        assertEquals("abort", robot.commands.get(5));
+        assertEquals("drive 90", robot.commands.get(6));
+    }
+}
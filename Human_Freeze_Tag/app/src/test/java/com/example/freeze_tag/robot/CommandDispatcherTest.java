@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.macro.MacroObject;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CommandDispatcherTest {
+
+    private static final Clock CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    /** Records what was sent, and can hold the sender up like a stalled Bluetooth link. */
+    private static class SlowRobot implements CommandCoalescer.Robot {
+        final List<String> commands = new ArrayList<>();
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        private synchronized void record(String command) {
+            commands.add(command);
+            notifyAll();
+        }
+
+        synchronized void awaitCommands(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (commands.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+        }
+
+        @Override
+        public void drive(float heading, float speed) {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            record("drive " + (int) heading);
+        }
+
+        @Override
+        public void stop() {
+            record("stop");
+        }
+
+        @Override
+        public void setLed(float red, float green, float blue) {
+            record("led " + red);
+        }
+
+        @Override
+        public void playMacro(MacroObject macro) {
+            record("macro");
+        }
+
+        @Override
+        public void abortMacro() {
+            record("abort");
+        }
+    }
+
+    @Test
+    public void post_neverWaitsForStalledSend() throws InterruptedException {
+        CommandDispatcher dispatcher = new CommandDispatcher(CLOCK);
+        SlowRobot robot = new SlowRobot();
+        CommandDispatcher.Sender sender = dispatcher.add("Test", robot);
+
+        sender.drive(0, 0.2f);
+        assertTrue(robot.sending.await(5, TimeUnit.SECONDS));
+
+        // The first drive is stuck in the SDK, these only replace each other in the mailbox.
+        long start = System.nanoTime();
+        sender.drive(90, 0.2f);
+        sender.drive(180, 0.2f);
+        sender.setLed(0.25f, 0.25f, 0.25f);
+        sender.drive(270, 0.2f);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+        robot.release.countDown();
+        robot.awaitCommands(3);
+        dispatcher.shutdown();
+
+        assertEquals(3, robot.commands.size());
+        assertEquals("drive 0", robot.commands.get(0));
+        assertEquals("led 0.25", robot.commands.get(1));
+        assertEquals("drive 270", robot.commands.get(2));
+        assertEquals(2, sender.getSuperseded());
+    }
+
+    @Test
+    public void stop_dropsEarlierDrive() throws InterruptedException {
+        CommandDispatcher dispatcher = new CommandDispatcher(CLOCK);
+        SlowRobot robot = new SlowRobot();
+        CommandDispatcher.Sender sender = dispatcher.add("Test", robot);
+
+        sender.drive(0, 0.2f);
+        assertTrue(robot.sending.await(5, TimeUnit.SECONDS));
+        sender.drive(90, 0.2f);
+        sender.stop();
+        sender.setLed(0, 0, 0);
+
+        robot.release.countDown();
+        robot.awaitCommands(3);
+        dispatcher.shutdown();
+
+        assertEquals(3, robot.commands.size());
+        assertEquals("stop", robot.commands.get(1));
+        assertEquals("led 0.0", robot.commands.get(2));
+        assertEquals(1, sender.getSuperseded());
+    }
+
+    @Test
+    public void add_afterShutdownSendsAgain() throws InterruptedException {
+        CommandDispatcher dispatcher = new CommandDispatcher(CLOCK);
+        dispatcher.add("Old", new SlowRobot());
+        dispatcher.shutdown();
+        assertTrue(dispatcher.getStatStrings().isEmpty());
+
+        // As when the next activity adds its Spheros again.
+        SlowRobot robot = new SlowRobot();
+        CommandDispatcher.Sender sender = dispatcher.add("New", robot);
+        sender.setLed(0.25f, 0.25f, 0.25f);
+        robot.awaitCommands(1);
+        dispatcher.shutdown();
+
+        assertEquals(1, robot.commands.size());
+        assertEquals("led 0.25", robot.commands.get(0));
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.freeze_tag.robot;
+
+import com.orbotix.macro.MacroObject;
+import com.orbotix.macro.cmd.Roll;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrajectoryTest {
+
+    @Test
+    public void turning_continuesTurnAndWraps() {
+        Trajectory trajectory = Trajectory.turning(350, 100, 0.2f, 4, 100);
+
+        assertEquals(4, trajectory.getSteps());
+        assertEquals(400, trajectory.getDurationMs());
+        assertEquals(350, trajectory.getHeadingAt(0));
+        assertEquals(350, trajectory.getHeadingAt(99));
+        assertEquals(0, trajectory.getHeadingAt(100));
+        assertEquals(10, trajectory.getHeadingAt(250));
+        assertEquals(20, trajectory.getHeadingAt(300));
+        // Holds the last heading past the end.
+        assertEquals(20, trajectory.getHeadingAt(1000));
+
+        assertEquals(330, Trajectory.turning(10, -200, 0.2f, 3, 100).getHeadingAt(200));
+    }
+
+    @Test
+    public void toMacro_rollsEachStepThenStops() {
+        MacroObject macro = Trajectory.turning(90, 0, 0.2f, 3, 150).toMacro();
+
+        assertEquals(4, macro.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(macro.getCommands().get(i) instanceof Roll);
+        }
+    }
+}